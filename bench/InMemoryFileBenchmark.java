@@ -0,0 +1,85 @@
+package bench;
+
+import src.utils.FileHandler;
+import src.utils.InMemoryFile;
+import src.utils.Marshaller;
+import java.util.Random;
+
+/*
+ * Compares inserts and small ranged reads on the rope-backed InMemoryFile against the previous
+ * String implementation (prefix + newContent + suffix) as the file grows.
+ *
+ * Run with: java -cp <classes> bench.InMemoryFileBenchmark
+ */
+public class InMemoryFileBenchmark {
+    private static final int OPERATIONS = 2000;
+    private static final String INSERT = "0123456789";
+    private static final byte[] INSERT_BYTES = Marshaller.marshall(INSERT);
+
+    public static void main(String[] args) {
+        int[] sizes = { 10_000, 100_000, 1_000_000, 10_000_000 };
+        // warm up both paths before measuring
+        for (int i = 0; i < 3; i++) {
+            ropeInsert(100_000);
+            stringInsert(100_000);
+        }
+        System.out.printf("%12s %18s %18s %18s %18s%n", "file size", "rope insert", "string insert",
+                "rope read", "string read");
+        for (int size : sizes) {
+            System.out.printf("%12d %15.0f ns %15.0f ns %15.0f ns %15.0f ns%n", size, ropeInsert(size),
+                    stringInsert(size), ropeRead(size), stringRead(size));
+        }
+    }
+
+    private static String initialContent(int size) {
+        return "a".repeat(size);
+    }
+
+    // ns per insert of 10 chars at a random offset
+    private static double ropeInsert(int size) {
+        InMemoryFile file = new InMemoryFile("bench", initialContent(size));
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            FileHandler.updateFileContent(file, random.nextInt(file.getContentLength() + 1), INSERT_BYTES);
+        }
+        return (System.nanoTime() - start) / (double) OPERATIONS;
+    }
+
+    private static double stringInsert(int size) {
+        String content = initialContent(size);
+        Random random = new Random(1);
+        int operations = size >= 1_000_000 ? OPERATIONS / 10 : OPERATIONS;
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            int offset = random.nextInt(content.length() + 1);
+            content = content.substring(0, offset) + INSERT + content.substring(offset);
+        }
+        return (System.nanoTime() - start) / (double) operations;
+    }
+
+    // ns per 100-char read at a random offset of a file that has just been modified
+    private static double ropeRead(int size) {
+        InMemoryFile file = new InMemoryFile("bench", initialContent(size));
+        Random random = new Random(2);
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            FileHandler.updateFileContent(file, file.getContentLength(), INSERT_BYTES);
+            FileHandler.getFileContent(file, random.nextInt(size), 100);
+        }
+        return (System.nanoTime() - start) / (double) OPERATIONS;
+    }
+
+    private static double stringRead(int size) {
+        String content = initialContent(size);
+        Random random = new Random(2);
+        int operations = size >= 1_000_000 ? OPERATIONS / 10 : OPERATIONS;
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            content = content + INSERT;
+            int offset = random.nextInt(size);
+            content.substring(offset, Math.min(offset + 100, content.length()));
+        }
+        return (System.nanoTime() - start) / (double) operations;
+    }
+}
@@ -0,0 +1,132 @@
+package src.client;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// appends written behind: buffered per file and sent together as one append request. a file's
+// buffer is flushed once it holds FLUSH_BYTES, once its first append has waited the flush delay,
+// or on demand. a file's flushes are sent one at a time, so its appends reach the server in the
+// order they were made. each flush is a single request, which the AsyncClient only ever resends
+// unchanged, so under at-most-once semantics the server applies it exactly once. a flush that
+// fails is reported rather than sent again as a new request, since the server may have applied it
+class AppendBuffer {
+    static final int FLUSH_BYTES = 8192;
+    private static final int MAX_FLUSH_BYTES = 60000; // keeps a flush within one request datagram
+
+    // what is buffered for one file
+    private static final class Pending {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        int appends;
+        ScheduledFuture<?> timer; // the delayed flush, null while nothing is buffered
+        // the latest flush, which is only answered after the ones before it
+        CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+    }
+
+    private final AsyncClient server;
+    private final long delayMillis;
+    private final Consumer<String> flushed; // told about a file once a flush to it has been applied
+    private final Map<String, Pending> files = new HashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "append-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long appends;
+    private long flushes;
+    private long bytes;
+    private long failures;
+
+    AppendBuffer(AsyncClient server, long delayMillis, Consumer<String> flushed) {
+        this.server = server;
+        this.delayMillis = delayMillis;
+        this.flushed = flushed;
+    }
+
+    // buffers the content, first flushing what the file's buffer holds if both would not fit in
+    // one request
+    synchronized void append(String filename, byte[] content) {
+        Pending pending = files.computeIfAbsent(filename, k -> new Pending());
+        if (pending.content.size() > 0 && pending.content.size() + content.length > MAX_FLUSH_BYTES) {
+            send(filename, pending);
+        }
+        pending.content.write(content, 0, content.length);
+        pending.appends++;
+        appends++;
+        if (pending.content.size() >= FLUSH_BYTES) {
+            send(filename, pending);
+        } else if (pending.timer == null) {
+            pending.timer = timer.schedule(() -> flush(filename), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // sends what is buffered for the file. the future completes once that and every earlier flush
+    // of the file have been answered
+    synchronized CompletableFuture<Void> flush(String filename) {
+        Pending pending = files.get(filename);
+        if (pending == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (pending.content.size() > 0) {
+            send(filename, pending);
+        }
+        return pending.sent;
+    }
+
+    synchronized CompletableFuture<Void> flushAll() {
+        List<CompletableFuture<Void>> sent = new ArrayList<>();
+        for (String filename : new ArrayList<>(files.keySet())) {
+            sent.add(flush(filename));
+        }
+        return CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[0]));
+    }
+
+    // called with the lock held. the flush is only sent once the file's previous one is answered
+    private void send(String filename, Pending pending) {
+        byte[] content = pending.content.toByteArray();
+        int count = pending.appends;
+        pending.content.reset();
+        pending.appends = 0;
+        if (pending.timer != null) {
+            pending.timer.cancel(false);
+            pending.timer = null;
+        }
+        flushes++;
+        bytes += content.length;
+        pending.sent = pending.sent
+                .thenCompose(previous -> server.append(filename, content))
+                .handle((response, error) -> {
+                    if (error == null && response.isOk()) {
+                        flushed.accept(filename);
+                        return null;
+                    }
+                    synchronized (this) {
+                        failures++;
+                    }
+                    System.err.println("Failed to flush " + count + " appends (" + content.length + " bytes) to "
+                            + filename + ": " + (error != null ? error.getMessage() : response.text()));
+                    return null;
+                });
+    }
+
+    // flushes every file, waits for the answers and stops the flush timer
+    void close() {
+        flushAll().join();
+        timer.shutdownNow();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Write-behind: " + appends + " appends in " + flushes + " flushes, " + bytes + " bytes, " + failures
+                + " failed flushes";
+    }
+}
@@ -0,0 +1,502 @@
+package src.client;
+
+import src.utils.Marshaller;
+import src.utils.Protocol;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/*
+ * Programmatic client that keeps any number of requests in flight on one socket. Every call
+ * returns a CompletableFuture straight away. A single receiver thread matches replies to requests
+ * by sequence number, so a late duplicate reply can never be taken for the answer to another
+ * request. A timer resends requests whose replies are late, with timeouts from the
+ * RetransmissionTimer, and fails the future with a TimeoutException once the retry budget is
+ * spent. A request the server refuses as older than its dedup window fails with an
+ * OutcomeUnknownException: it may or may not have run, so it must not simply be sent again. Futures complete on the receiver thread, so callbacks attached to them must not block.
+ * Nothing is printed; callers that report retries can read the attempts a reply took from it.
+ */
+public class AsyncClient implements AutoCloseable {
+    // a reply from the server: the payload, or an error message when the status is not STATUS_OK
+    public static final class Response {
+        public final byte operationCode;
+        public final byte status;
+        public final byte[] body;
+        public final int leaseSeconds; // the lease the reply grants on the file it read, 0 if none
+        public final int attempts; // the times the request was sent before this reply, 0 for updates
+
+        Response(byte operationCode, byte status, byte[] body, int leaseSeconds, int attempts) {
+            this.operationCode = operationCode;
+            this.status = status;
+            this.body = body;
+            this.leaseSeconds = leaseSeconds;
+            this.attempts = attempts;
+        }
+
+        public boolean isOk() {
+            return status == Protocol.STATUS_OK;
+        }
+
+        public String text() {
+            return Marshaller.unmarshallString(body);
+        }
+    }
+
+    // the server refused the request as older than the client's dedup window. the request may have
+    // run before, with its reply since dropped, or never have arrived, and the server cannot tell which
+    public static final class OutcomeUnknownException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        OutcomeUnknownException(String message) {
+            super(message);
+        }
+    }
+
+    // a request waiting for its reply. guarded by its own lock, since the receiver thread and the
+    // timer both update it
+    private static final class Call {
+        final long sequence;
+        final byte[] request;
+        final CompletableFuture<Response> future = new CompletableFuture<>();
+        int attempt;
+        long sentAt; // System.nanoTime() of the latest attempt
+        ScheduledFuture<?> timeout;
+        ChunkAssembler assembler; // set once a streamed reply starts arriving
+        long lastChunkAt;
+
+        Call(long sequence, byte[] request) {
+            this.sequence = sequence;
+            this.request = request;
+        }
+    }
+
+    // a monitor registration, whose updates arrive under its sequence number until it expires
+    // the server sends a snapshot on registration and deltas after that, so each subscription
+    // keeps the file's content at the latest version it has seen
+    private static final class Subscription {
+        final String filename;
+        final Consumer<byte[]> listener;
+        ChunkAssembler assembler; // the update being streamed in, if any
+        byte[] content;
+        long version = -1; // negative until the first snapshot arrives
+        long resyncRequestedAt; // when a snapshot was last asked for after a missed delta, 0 if none is pending
+
+        Subscription(String filename, Consumer<byte[]> listener) {
+            this.filename = filename;
+            this.listener = listener;
+        }
+    }
+
+    private static final long STREAM_IDLE_MILLIS = 10000; // how long a streamed reply may stall before the request is resent
+    private static final long STREAM_CHECK_MILLIS = 1000;
+    private static final long RESYNC_MILLIS = 1000; // how long to wait for a snapshot before asking again
+
+    private final DatagramSocket socket;
+    private final InetSocketAddress server;
+    private final double lossProbability; // simulated loss of every datagram sent
+    private final long clientId = new SecureRandom().nextLong(); // with the sequence number, identifies each request
+    private long lastSequence; // guarded by calls
+    // by sequence, so the oldest call still waiting for its reply is always the first
+    private final ConcurrentSkipListMap<Long, Call> calls = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<Long, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final RetransmissionTimer retransmission = new RetransmissionTimer(); // for the one server this client talks to
+    private volatile BiConsumer<String, Long> invalidationListener = (filename, version) -> {
+    };
+    private final ScheduledExecutorService timer;
+    private final Thread receiver;
+
+    public AsyncClient(String address, int port) throws IOException {
+        this(address, port, 0);
+    }
+
+    // the same, dropping each datagram sent with the given probability to simulate packet loss
+    public AsyncClient(String address, int port, double lossProbability) throws IOException {
+        this.socket = new DatagramSocket();
+        this.server = new InetSocketAddress(address, port);
+        this.lossProbability = lossProbability;
+        this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "client-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.receiver = new Thread(this::receiveLoop, "client-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    public CompletableFuture<Response> read(String filename, int offset, int length) {
+        return call(Protocol.OP_READ, filename, offset, length, null);
+    }
+
+    // reads the range unless the file is still at the cached version, in which case the reply has
+    // STATUS_NOT_MODIFIED. otherwise the body is the file's version followed by the range, and a
+    // version the server never uses, such as 0, always fetches the range
+    public CompletableFuture<Response> readIfModified(String filename, int offset, int length, long cachedVersion) {
+        return readIfModified(filename, offset, length, cachedVersion, false);
+    }
+
+    // the same, also asking for a lease on the file. a reply with a positive leaseSeconds means the
+    // server will report changes to the file to the listener set with onInvalidate until the lease
+    // expires, counting from when the request was made
+    public CompletableFuture<Response> readIfModified(String filename, int offset, int length, long cachedVersion,
+            boolean lease) {
+        byte[] payload = ByteBuffer.allocate(Long.BYTES).putLong(cachedVersion).array();
+        return start(newCall(sequence -> {
+            byte[] request = Protocol.encodeRequest(Protocol.OP_READ_IF_MODIFIED, clientId, sequence, offset, length,
+                    filename, payload);
+            if (lease) {
+                request[Protocol.FLAGS_OFFSET] |= Protocol.FLAG_LEASE;
+            }
+            return request;
+        }));
+    }
+
+    // sets what is told the name and new version of a leased file that has changed. it runs on the
+    // receiver thread, and may run more than once for the same change
+    public void onInvalidate(BiConsumer<String, Long> listener) {
+        this.invalidationListener = listener;
+    }
+
+    public CompletableFuture<Response> insert(String filename, int offset, byte[] content) {
+        return call(Protocol.OP_INSERT, filename, offset, 0, content);
+    }
+
+    public CompletableFuture<Response> getFileInfo(String filename) {
+        return call(Protocol.OP_GET_INFO, filename, 0, 0, null);
+    }
+
+    public CompletableFuture<Response> append(String filename, byte[] content) {
+        return call(Protocol.OP_APPEND, filename, 0, 0, content);
+    }
+
+    // registers for updates to the file for the given number of seconds. the future completes
+    // with the registration's reply, and the file's whole content is then passed to the listener
+    // after every update
+    public CompletableFuture<Response> monitor(String filename, int interval, Consumer<byte[]> listener) {
+        Call call = newCall(sequence -> Protocol.encodeRequest(Protocol.OP_MONITOR, clientId, sequence, 0, interval,
+                filename, null));
+        long sequence = call.sequence;
+        subscriptions.put(sequence, new Subscription(filename, listener));
+        CompletableFuture<Response> registered = start(call);
+        registered.whenComplete((response, error) -> {
+            if (error != null || !response.isOk()) {
+                subscriptions.remove(sequence);
+            } else {
+                timer.schedule(() -> subscriptions.remove(sequence), interval, TimeUnit.SECONDS);
+            }
+        });
+        return registered;
+    }
+
+    // runs the operations as one batch. the reply's body holds one part per operation, which
+    // Protocol.decodeBatchReplyBody splits
+    public CompletableFuture<Response> batch(List<Protocol.Operation> operations) {
+        return start(newCall(sequence -> Protocol.encodeBatchRequest(clientId, sequence, operations)));
+    }
+
+    // round-trip and retransmission statistics, for display
+    public String statistics() {
+        return retransmission.toString();
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+        timer.shutdownNow();
+        try {
+            receiver.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<Response> call(byte operationCode, String filename, int offset, int length,
+            byte[] payload) {
+        return start(newCall(sequence -> Protocol.encodeRequest(operationCode, clientId, sequence, offset, length,
+                filename, payload)));
+    }
+
+    // numbers and registers a request. every request still waiting for its reply may be resent,
+    // so the request tells the server to keep the replies from the oldest of them on. numbering
+    // and registering together means no older request can be missing from that count
+    private Call newCall(LongFunction<byte[]> encoder) {
+        synchronized (calls) {
+            long sequence = ++lastSequence;
+            Map.Entry<Long, Call> first = calls.firstEntry();
+            long oldest = first != null ? first.getKey() : sequence;
+            byte[] request = encoder.apply(sequence);
+            ByteBuffer.wrap(request).putShort(Protocol.OUTSTANDING_OFFSET,
+                    (short) Math.min(sequence - oldest, 0xffff));
+            Call call = new Call(sequence, request);
+            calls.put(sequence, call);
+            return call;
+        }
+    }
+
+    private CompletableFuture<Response> start(Call call) {
+        call.future.whenComplete((response, error) -> calls.remove(call.sequence));
+        synchronized (call) {
+            transmit(call);
+        }
+        return call.future;
+    }
+
+    // sends the next attempt at the call and arms its timeout. called with the call's lock held
+    private void transmit(Call call) {
+        call.attempt++;
+        int timeoutMillis = retransmission.timeout(call.attempt);
+        call.sentAt = System.nanoTime();
+        try {
+            send(call.request);
+            call.timeout = timer.schedule(() -> onTimeout(call), timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            call.future.completeExceptionally(e);
+        } catch (RuntimeException e) {
+            call.future.completeExceptionally(e); // e.g. the timer has been shut down by close()
+        }
+    }
+
+    private void onTimeout(Call call) {
+        synchronized (call) {
+            if (call.future.isDone()) {
+                return;
+            }
+            if (call.assembler != null && System.currentTimeMillis() - call.lastChunkAt <= STREAM_IDLE_MILLIS) {
+                // the reply is streaming in, so the request is not resent
+                sendAck(call.sequence, call.assembler);
+                call.timeout = timer.schedule(() -> onTimeout(call), STREAM_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            }
+            retransmission.timedOut();
+            if (call.attempt >= RetransmissionTimer.MAX_ATTEMPTS) {
+                retransmission.gaveUp();
+                call.future.completeExceptionally(new TimeoutException(
+                        "No reply after " + RetransmissionTimer.MAX_ATTEMPTS + " attempts"));
+                return;
+            }
+            call.assembler = null; // a stalled stream is abandoned, the retry starts a new one
+            transmit(call);
+        }
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[65535];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!socket.isClosed()) {
+            try {
+                socket.receive(packet);
+            } catch (IOException e) {
+                break; // the socket was closed
+            }
+            ByteBuffer datagram = ByteBuffer.wrap(buffer, 0, packet.getLength());
+            if (!Protocol.isVersioned(datagram)) {
+                continue;
+            }
+            try {
+                if (datagram.get(Protocol.OPERATION_OFFSET) == Protocol.OP_INVALIDATE) {
+                    receiveInvalidation(datagram);
+                } else if ((datagram.get(Protocol.FLAGS_OFFSET) & Protocol.FLAG_NOTIFICATION) != 0) {
+                    receiveUpdate(datagram);
+                } else {
+                    receiveReply(datagram);
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Ignoring malformed reply: " + e.getMessage());
+            }
+        }
+        IOException closed = new IOException("Client closed");
+        calls.values().forEach(call -> call.future.completeExceptionally(closed));
+    }
+
+    private void receiveReply(ByteBuffer datagram) {
+        long sequence = datagram.getLong(Protocol.SEQUENCE_OFFSET);
+        Call call = calls.get(sequence);
+        if (call == null) {
+            return; // a late duplicate of a reply that has already been handled
+        }
+        Response response;
+        synchronized (call) {
+            if (call.future.isDone()) {
+                return;
+            }
+            boolean streamed = (datagram.get(Protocol.FLAGS_OFFSET) & Protocol.FLAG_CHUNKED) != 0;
+            byte[] message;
+            if (streamed) {
+                // a retried request may start a second transfer of the same reply, so chunks of
+                // any transfer but the first one seen are ignored
+                if (datagram.limit() < Protocol.CHUNK_DATA_OFFSET) {
+                    return;
+                }
+                if (call.assembler == null) {
+                    call.assembler = newAssembler(datagram);
+                } else if (call.assembler.transferId != datagram.getInt(Protocol.CHUNK_TRANSFER_OFFSET)) {
+                    return;
+                }
+                call.assembler.add(datagram);
+                call.lastChunkAt = System.currentTimeMillis();
+                sendAck(sequence, call.assembler);
+                if (!call.assembler.isComplete()) {
+                    return;
+                }
+                message = call.assembler.message();
+            } else {
+                message = Arrays.copyOf(datagram.array(), datagram.limit());
+            }
+            call.timeout.cancel(false);
+            // streamed replies take longer than a round trip, so they are not measured
+            retransmission.replied(call.attempt, System.nanoTime() - call.sentAt, !streamed);
+            response = toResponse(message, call.attempt);
+        }
+        if (response.status == Protocol.STATUS_STALE) {
+            call.future.completeExceptionally(new OutcomeUnknownException(
+                    "Request " + call.sequence + " is older than the server's dedup window; whether it ran is unknown"));
+            return;
+        }
+        call.future.complete(response);
+    }
+
+    // acknowledges every copy of an invalidation, since the acknowledgement of an earlier one may
+    // have been lost
+    private void receiveInvalidation(ByteBuffer datagram) {
+        long version = datagram.getLong(Protocol.HEADER_BYTES);
+        datagram.position(Protocol.HEADER_BYTES + Long.BYTES);
+        String filename = Marshaller.unmarshallString(datagram, datagram.remaining());
+        try {
+            send(Protocol.encodeInvalidationAck(clientId, datagram.getLong(Protocol.SEQUENCE_OFFSET)));
+        } catch (IOException e) {
+            System.err.println("Failed to acknowledge an invalidation: " + e.getMessage());
+        }
+        invalidationListener.accept(filename, version);
+    }
+
+    private void receiveUpdate(ByteBuffer datagram) {
+        long sequence = datagram.getLong(Protocol.SEQUENCE_OFFSET);
+        Subscription subscription = subscriptions.get(sequence);
+        if (subscription == null) {
+            return;
+        }
+        byte[] message;
+        synchronized (subscription) {
+            if ((datagram.get(Protocol.FLAGS_OFFSET) & Protocol.FLAG_CHUNKED) != 0) {
+                if (datagram.limit() < Protocol.CHUNK_DATA_OFFSET) {
+                    return;
+                }
+                // every update is a transfer of its own, and a newer one replaces an unfinished one
+                if (subscription.assembler == null
+                        || subscription.assembler.transferId != datagram.getInt(Protocol.CHUNK_TRANSFER_OFFSET)) {
+                    subscription.assembler = newAssembler(datagram);
+                }
+                subscription.assembler.add(datagram);
+                sendAck(sequence, subscription.assembler);
+                if (!subscription.assembler.isComplete()) {
+                    return;
+                }
+                message = subscription.assembler.message();
+                subscription.assembler = null;
+            } else {
+                message = Arrays.copyOf(datagram.array(), datagram.limit());
+            }
+        }
+        Response response = toResponse(message, 0);
+        if (!response.isOk()) {
+            return;
+        }
+        Protocol.Update update = Protocol.decodeUpdateBody(ByteBuffer.wrap(response.body));
+        byte[] content;
+        synchronized (subscription) {
+            content = apply(sequence, subscription, update);
+        }
+        if (content != null) {
+            subscription.listener.accept(content);
+        }
+    }
+
+    // brings the subscription's copy of the file up to date, and returns the content to pass on,
+    // or null if there is nothing new to show. a delta that does not follow the version held
+    // means one was missed, so a snapshot is asked for instead
+    private byte[] apply(long sequence, Subscription subscription, Protocol.Update update) {
+        if (update.version <= subscription.version) {
+            return null; // already applied
+        }
+        if (update.isSnapshot()) {
+            // the snapshot sent on registration is only the starting point, but one asked for
+            // after a missed delta carries an update
+            boolean changed = subscription.version >= 0 || subscription.resyncRequestedAt != 0;
+            subscription.content = update.data;
+            subscription.version = update.version;
+            subscription.resyncRequestedAt = 0;
+            return changed ? subscription.content : null;
+        }
+        if (update.baseVersion != subscription.version) {
+            if (subscription.resyncRequestedAt == 0) {
+                requestSnapshot(sequence, subscription);
+            }
+            return null;
+        }
+        subscription.content = update.applyTo(subscription.content);
+        subscription.version = update.version;
+        return subscription.content;
+    }
+
+    // asks for a snapshot, and again every RESYNC_MILLIS until one arrives or the subscription ends
+    private void requestSnapshot(long sequence, Subscription subscription) {
+        subscription.resyncRequestedAt = System.currentTimeMillis();
+        try {
+            send(Protocol.encodeRequest(Protocol.OP_RESYNC, clientId, sequence, 0, 0, subscription.filename, null));
+        } catch (IOException e) {
+            System.err.println("Failed to request a snapshot: " + e.getMessage());
+        }
+        timer.schedule(() -> {
+            synchronized (subscription) {
+                if (subscription.resyncRequestedAt != 0 && subscriptions.get(sequence) == subscription) {
+                    requestSnapshot(sequence, subscription);
+                }
+            }
+        }, RESYNC_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static ChunkAssembler newAssembler(ByteBuffer chunk) {
+        return new ChunkAssembler(chunk.getInt(Protocol.CHUNK_TRANSFER_OFFSET),
+                chunk.getInt(Protocol.CHUNK_COUNT_OFFSET), chunk.getInt(Protocol.CHUNK_TOTAL_OFFSET));
+    }
+
+    private static Response toResponse(byte[] message, int attempts) {
+        return new Response(message[Protocol.OPERATION_OFFSET], message[Protocol.STATUS_OFFSET],
+                Arrays.copyOfRange(message, Protocol.HEADER_BYTES, message.length),
+                Protocol.leaseSeconds(ByteBuffer.wrap(message)), attempts);
+    }
+
+    private void sendAck(long sequence, ChunkAssembler assembler) {
+        try {
+            send(Protocol.encodeAck(clientId, sequence, assembler.transferId, assembler.received(),
+                    assembler.selective()));
+        } catch (IOException e) {
+            System.err.println("Failed to acknowledge chunks: " + e.getMessage());
+        }
+    }
+
+    private void send(byte[] datagram) throws IOException {
+        if (lossProbability > 0 && ThreadLocalRandom.current().nextDouble() < lossProbability) {
+            return; // dropped by the simulated packet loss
+        }
+        socket.send(new DatagramPacket(datagram, datagram.length, server));
+    }
+}
@@ -0,0 +1,379 @@
+package src.client;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// cached file content in fixed-size blocks, so that overlapping and adjacent reads share what
+// they fetched and a read only has to fetch the blocks it is missing. every file's blocks come
+// from one version of it, and blocks of an older version are dropped as soon as a newer one is
+// seen. the blocks of all files together stay within a byte budget, the least recently used
+// being evicted first. while the server holds a lease for this client on a file, its blocks are
+// used without validating them, since the server reports any change to the file. blocks fetched
+// ahead of a sequential reader are tracked until they are first read, and those dropped before
+// then count as wasted
+class BlockCache {
+    static final int BLOCK_SIZE = 4096;
+
+    private static final class Block {
+        final String filename;
+        final int index;
+
+        Block(String filename, int index) {
+            this.filename = filename;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Block && ((Block) other).index == index
+                    && ((Block) other).filename.equals(filename);
+        }
+
+        @Override
+        public int hashCode() {
+            return filename.hashCode() * 31 + index;
+        }
+    }
+
+    // what is known about one file at the cached version
+    private static final class FileState {
+        long version;
+        long validatedAt; // when the server last confirmed the version
+        long leaseUntil; // when the lease on the file expires, 0 if there is none
+        int length = -1; // the file's length, once a read has reached its end
+        final Set<Integer> blocks = new HashSet<>();
+    }
+
+    // a version the server reported a file changed to, kept so that a late reply from before the
+    // change is neither trusted nor leased. it is forgotten once that version is cached, since the
+    // cached version then does the same, or once every lease granted before the change has run
+    // out, after which a late reply can only be trusted for the freshness interval like any other
+    private static final class Change {
+        final long version;
+        final long expiresAt;
+
+        Change(long version, long expiresAt) {
+            this.version = version;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long budget;
+    private final LinkedHashMap<Block, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true); // access order
+    private final Map<String, FileState> files = new HashMap<>();
+    private final Map<String, Change> invalidated = new HashMap<>(); // the latest change to each leased file
+    private final Map<Block, Integer> unread = new HashMap<>(); // prefetched blocks not read yet, with their lengths
+    private long bytes;
+    private long longestLease; // in milliseconds, bounds how long a change is kept
+
+    private long hits;
+    private long misses;
+    private long validations;
+    private long notModified;
+    private long evictions;
+    private long leases;
+    private long invalidations;
+    private long prefetchedBytes;
+    private long prefetchUsed;
+    private long prefetchWasted;
+
+    BlockCache(long budget) {
+        this.budget = budget;
+    }
+
+    long budget() {
+        return budget;
+    }
+
+    // the range [offset, offset + length), clipped to the end of the file, if every block it
+    // covers is cached, or null otherwise. a range starting beyond the known end of the file is
+    // never cached, see beyondEnd
+    synchronized byte[] get(String filename, int offset, int length) {
+        FileState file = files.get(filename);
+        if (file == null) {
+            misses += blockCount(offset, length);
+            return null;
+        }
+        int end = offset + length;
+        if (file.length >= 0) {
+            if (offset > file.length) {
+                return null;
+            }
+            end = Math.min(end, file.length);
+        }
+        if (end <= offset) {
+            return new byte[0];
+        }
+        byte[] range = new byte[end - offset];
+        int missing = 0;
+        for (int index = offset / BLOCK_SIZE; index <= (end - 1) / BLOCK_SIZE; index++) {
+            byte[] block = blocks.get(new Block(filename, index));
+            int blockStart = index * BLOCK_SIZE;
+            if (block == null || blockStart + block.length < Math.min(end, blockStart + BLOCK_SIZE)) {
+                missing++;
+                continue;
+            }
+            int from = Math.max(offset, blockStart);
+            int to = Math.min(end, blockStart + block.length);
+            System.arraycopy(block, from - blockStart, range, from - offset, to - from);
+        }
+        misses += missing;
+        if (missing > 0) {
+            return null;
+        }
+        hits += blockCount(offset, end - offset);
+        for (int index = offset / BLOCK_SIZE; index <= (end - 1) / BLOCK_SIZE; index++) {
+            Integer prefetched = unread.remove(new Block(filename, index));
+            if (prefetched != null) {
+                prefetchUsed += prefetched;
+            }
+        }
+        return range;
+    }
+
+    // the first and last block of the range that are not cached, or of the whole range if
+    // nothing is, as byte offsets [start, end) to fetch
+    synchronized int[] missing(String filename, int offset, int length) {
+        int first = offset / BLOCK_SIZE;
+        int last = (offset + Math.max(length, 1) - 1) / BLOCK_SIZE;
+        FileState file = files.get(filename);
+        if (file != null) {
+            if (file.length >= 0) {
+                last = Math.min(last, Math.max(first, (file.length - 1) / BLOCK_SIZE));
+            }
+            while (first < last && isComplete(filename, file, first)) {
+                first++;
+            }
+            while (last > first && isComplete(filename, file, last)) {
+                last--;
+            }
+        }
+        return new int[] { first * BLOCK_SIZE, (last + 1) * BLOCK_SIZE };
+    }
+
+    // true if the block is cached in full, or up to the end of the file
+    private boolean isComplete(String filename, FileState file, int index) {
+        byte[] block = file.blocks.contains(index) ? blocks.get(new Block(filename, index)) : null;
+        return block != null && (block.length == BLOCK_SIZE || index * BLOCK_SIZE + block.length == file.length);
+    }
+
+    // true if the blocks covering [start, end) are cached in full, or up to the end of the file.
+    // unlike get, this is not counted as a hit or miss
+    synchronized boolean contains(String filename, int start, int end) {
+        FileState file = files.get(filename);
+        if (file == null) {
+            return false;
+        }
+        if (file.length >= 0) {
+            end = Math.min(end, file.length);
+        }
+        if (end <= start) {
+            return true;
+        }
+        for (int index = start / BLOCK_SIZE; index <= (end - 1) / BLOCK_SIZE; index++) {
+            if (!isComplete(filename, file, index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // true if the offset lies beyond the end of the cached version of the file
+    synchronized boolean beyondEnd(String filename, int offset) {
+        FileState file = files.get(filename);
+        return file != null && file.length >= 0 && offset > file.length;
+    }
+
+    // the length of the file, or -1 if no read has reached its end
+    synchronized int length(String filename) {
+        FileState file = files.get(filename);
+        return file != null ? file.length : -1;
+    }
+
+    // the whole blocks covering the range, as byte offsets [start, end)
+    static int[] span(int offset, int length) {
+        int first = offset / BLOCK_SIZE;
+        int last = (offset + Math.max(length, 1) - 1) / BLOCK_SIZE;
+        return new int[] { first * BLOCK_SIZE, (last + 1) * BLOCK_SIZE };
+    }
+
+    private static int blockCount(int offset, int length) {
+        return length <= 0 ? 0 : (offset + length - 1) / BLOCK_SIZE - offset / BLOCK_SIZE + 1;
+    }
+
+    // the cached version of the file, or 0 if none
+    synchronized long version(String filename) {
+        FileState file = files.get(filename);
+        return file != null ? file.version : 0;
+    }
+
+    synchronized boolean isFresh(String filename, long freshnessInterval) {
+        FileState file = files.get(filename);
+        long now = System.currentTimeMillis();
+        return file != null && (now - file.validatedAt < freshnessInterval || now < file.leaseUntil);
+    }
+
+    // records a lease on the cached version of the file until the given time. a lease granted by a
+    // reply that arrived after the file changed again is ignored
+    synchronized void leased(String filename, long version, long until) {
+        longestLease = Math.max(longestLease, until - System.currentTimeMillis());
+        FileState file = files.get(filename);
+        if (file != null && file.version == version && !isLate(filename, version)) {
+            file.leaseUntil = Math.max(file.leaseUntil, until);
+            leases++;
+        }
+    }
+
+    // the server reported that the leased file has changed to the given version
+    synchronized void invalidate(String filename, long version) {
+        invalidations++;
+        FileState file = files.get(filename);
+        if (file != null && file.version >= version) {
+            return; // the version cached is already at least as new
+        }
+        changed(filename, version);
+        invalidate(filename);
+    }
+
+    // remembers that the file changed to the given version, and forgets the changes to other files
+    // that no late lease can outlast any more
+    private void changed(String filename, long version) {
+        long now = System.currentTimeMillis();
+        invalidated.values().removeIf(change -> change.expiresAt <= now);
+        Change previous = invalidated.get(filename);
+        invalidated.put(filename, new Change(previous != null ? Math.max(previous.version, version) : version,
+                now + longestLease));
+    }
+
+    // true if the file is known to have changed since the given version
+    private boolean isLate(String filename, long version) {
+        Change change = invalidated.get(filename);
+        return change != null && version < change.version && System.currentTimeMillis() < change.expiresAt;
+    }
+
+    // the number of files with a change still remembered
+    synchronized int changes() {
+        return invalidated.size();
+    }
+
+    // counts a conditional read of cached blocks, and restarts the file's freshness interval if
+    // the server answered that they are current
+    synchronized void validated(String filename, boolean current) {
+        validations++;
+        FileState file = files.get(filename);
+        if (current && file != null) {
+            notModified++;
+            file.validatedAt = System.currentTimeMillis();
+        }
+    }
+
+    // caches the bytes read from start, a block boundary, at the given version. fewer bytes than
+    // requested means the read reached the end of the file
+    synchronized void put(String filename, long version, int start, byte[] data, int requested) {
+        store(filename, version, start, data, requested, false);
+    }
+
+    // the same for blocks fetched ahead of a reader. a prefetch that arrives after a newer version
+    // was cached is dropped, and counts as wasted
+    synchronized void putPrefetched(String filename, long version, int start, byte[] data, int requested) {
+        FileState file = files.get(filename);
+        prefetchedBytes += data.length;
+        if (file != null && version < file.version) {
+            prefetchWasted += data.length;
+            return;
+        }
+        store(filename, version, start, data, requested, true);
+    }
+
+    private void store(String filename, long version, int start, byte[] data, int requested, boolean prefetched) {
+        FileState file = files.get(filename);
+        if (file != null && version < file.version) {
+            // a late reply replaces a newer version, which is remembered as a change instead
+            changed(filename, file.version);
+        }
+        if (file == null || file.version != version) {
+            // blocks of another version no longer match the file
+            invalidate(filename);
+            file = new FileState();
+            file.version = version;
+            files.put(filename, file);
+        }
+        // a late reply from before a reported change is cached, but validated before it is used
+        if (isLate(filename, version)) {
+            file.validatedAt = 0;
+        } else {
+            file.validatedAt = System.currentTimeMillis();
+            invalidated.remove(filename);
+        }
+        if (data.length < requested) {
+            file.length = start + data.length;
+        }
+        for (int from = 0; from < data.length; from += BLOCK_SIZE) {
+            int index = (start + from) / BLOCK_SIZE;
+            byte[] block = new byte[Math.min(BLOCK_SIZE, data.length - from)];
+            System.arraycopy(data, from, block, 0, block.length);
+            Block key = new Block(filename, index);
+            byte[] previous = blocks.put(key, block);
+            if (previous != null) {
+                bytes -= previous.length;
+                dropped(key, previous.length);
+            }
+            bytes += block.length;
+            file.blocks.add(index);
+            if (prefetched) {
+                unread.put(key, block.length);
+            }
+        }
+        evict();
+    }
+
+    // forgets everything cached for the file
+    synchronized void invalidate(String filename) {
+        FileState file = files.remove(filename);
+        if (file == null) {
+            return;
+        }
+        for (int index : file.blocks) {
+            Block key = new Block(filename, index);
+            byte[] block = blocks.remove(key);
+            if (block != null) {
+                bytes -= block.length;
+                dropped(key, block.length);
+            }
+        }
+    }
+
+    // counts a prefetched block that is dropped before it was read as wasted
+    private void dropped(Block block, int length) {
+        if (unread.remove(block) != null) {
+            prefetchWasted += length;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Block, byte[]>> eldest = blocks.entrySet().iterator();
+        while (bytes > budget && eldest.hasNext()) {
+            Map.Entry<Block, byte[]> entry = eldest.next();
+            bytes -= entry.getValue().length;
+            FileState file = files.get(entry.getKey().filename);
+            if (file != null) {
+                file.blocks.remove(entry.getKey().index);
+            }
+            dropped(entry.getKey(), entry.getValue().length);
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Block cache: " + hits + " block hits, " + misses + " block misses, " + validations + " validations ("
+                + notModified + " not modified), " + leases + " leases, " + invalidations + " invalidations, " + evictions
+                + " evictions, " + blocks.size() + " blocks, " + bytes + " of " + budget + " bytes, " + prefetchedBytes
+                + " bytes prefetched (" + prefetchUsed + " used, " + prefetchWasted + " wasted)";
+    }
+}
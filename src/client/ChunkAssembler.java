@@ -0,0 +1,69 @@
+package src.client;
+
+import src.utils.Protocol;
+import java.nio.ByteBuffer;
+
+// reassembles one streamed message from its chunks, in whatever order they arrive, and keeps
+// track of which have arrived for the acknowledgements
+class ChunkAssembler {
+    final int transferId;
+    private final byte[] message;
+    private final boolean[] arrived;
+    private int received; // chunks arrived from the start without a gap
+    private int remaining;
+
+    ChunkAssembler(int transferId, int chunkCount, int totalLength) {
+        if (chunkCount < 1 || totalLength < chunkCount) {
+            throw new IllegalArgumentException("Invalid chunked transfer of " + totalLength + " bytes in "
+                    + chunkCount + " chunks");
+        }
+        this.transferId = transferId;
+        this.message = new byte[totalLength];
+        this.arrived = new boolean[chunkCount];
+        this.remaining = chunkCount;
+    }
+
+    // copies a chunk datagram's data into place. every chunk but the last has the same size, so a
+    // chunk's offset follows from its index and length, and the last one ends the message
+    void add(ByteBuffer chunk) {
+        int index = chunk.getInt(Protocol.CHUNK_INDEX_OFFSET);
+        int length = chunk.limit() - Protocol.CHUNK_DATA_OFFSET;
+        if (index < 0 || index >= arrived.length || arrived[index]) {
+            return;
+        }
+        long start = index == arrived.length - 1 ? message.length - length : (long) index * length;
+        if (length <= 0 || start < 0 || start + length > message.length) {
+            return;
+        }
+        chunk.get(Protocol.CHUNK_DATA_OFFSET, message, (int) start, length);
+        arrived[index] = true;
+        remaining--;
+        while (received < arrived.length && arrived[received]) {
+            received++;
+        }
+    }
+
+    int received() {
+        return received;
+    }
+
+    // bit i is set if chunk received() + 1 + i has arrived
+    long selective() {
+        long bits = 0;
+        for (int bit = 0; bit < Protocol.SELECTIVE_ACK_CHUNKS; bit++) {
+            int index = received + 1 + bit;
+            if (index < arrived.length && arrived[index]) {
+                bits |= 1L << bit;
+            }
+        }
+        return bits;
+    }
+
+    boolean isComplete() {
+        return remaining == 0;
+    }
+
+    byte[] message() {
+        return message;
+    }
+}
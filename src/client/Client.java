@@ -1,15 +1,11 @@
 package src.client;
 
 import src.utils.Marshaller;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketTimeoutException;
+import src.utils.Protocol;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
-import java.util.Random;
-import java.util.UUID;
 import java.util.concurrent.*;
 
 class CacheEntry {
@@ -30,191 +26,111 @@ class CacheEntry {
 }
 
 public class Client {
-    private DatagramSocket socket;
-    private InetAddress serverAddress;
-    private int serverPort;
+    private static final long DEFAULT_CACHE_BUDGET = 4L * 1024 * 1024;
+    private static final int DEFAULT_READ_AHEAD = 4; // windows prefetched ahead of a sequential reader at most
+    private static final double LOSS_PROBABILITY = 0.1; // simulated loss of every datagram the client sends
 
-    private String uniqueID = UUID.randomUUID().toString();
+    private AsyncClient server; // requests, retries and reply matching
 
     private long freshnessInterval;
 
     private Scanner scanner;
 
-    private ConcurrentHashMap<String, CacheEntry> cache = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, CacheEntry> cache = new ConcurrentHashMap<>(); // file info
 
-    public Client(String address, int port, long freshnessInterval) throws Exception {
-        this.socket = new DatagramSocket();
-        this.serverAddress = InetAddress.getByName(address);
-        this.serverPort = port;
+    private BlockCache blocks; // file content read so far
+
+    private ReadAhead readAhead; // prefetches for files read front to back
+
+    private AppendBuffer appends; // null unless appends are written behind
+    private long writeBehindMillis;
+
+    public Client(String address, int port, long freshnessInterval, long cacheBudget, int readAheadDepth,
+            long writeBehindMillis) throws Exception {
+        this.server = new AsyncClient(address, port, LOSS_PROBABILITY);
 
         this.freshnessInterval = freshnessInterval;
+        this.blocks = new BlockCache(cacheBudget);
+        this.readAhead = new ReadAhead(server, blocks, readAheadDepth);
+        this.writeBehindMillis = writeBehindMillis;
+        if (writeBehindMillis > 0) {
+            this.appends = new AppendBuffer(server, writeBehindMillis, this::written);
+        }
+        // a server granting leases reports changes to the files this client reads
+        server.onInvalidate((filename, version) -> {
+            blocks.invalidate(filename, version);
+            cache.remove(filename + "fileInfo");
+        });
 
         this.scanner = new Scanner(System.in);
     }
 
-    // implementing marshalling & sending requests
-    private byte[] prepareRequest(int operationCode, String filename, int offset, String content, String requestId)
-            throws Exception {
-        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + requestId.length() + 1 + Integer.BYTES
-                + filename.length() + Integer.BYTES + (content != null ? content.length() : 0) + Integer.BYTES);
-        buffer.putInt(requestId.length()); // requestID length
-        buffer.put(requestId.getBytes()); // Unique request ID for at-most-once invocation semantics
-        buffer.put((byte) operationCode); // Operation code
-        buffer.putInt(filename.length()); // Filename length
-        buffer.put(filename.getBytes()); // Filename
-        buffer.putInt(offset); // Offset
-
-        if (content != null) {
-            buffer.putInt(content.length()); // Content length
-            buffer.put(content.getBytes()); // Content
-        } else {
-            buffer.putInt(0); // Content length for operations without content
+    // waits for the reply to a request, returning null if the request failed
+    private AsyncClient.Response await(CompletableFuture<AsyncClient.Response> pending) {
+        try {
+            AsyncClient.Response response = pending.join();
+            if (response.attempts > 1) {
+                System.out.println("Reply received after " + response.attempts + " attempts.");
+            }
+            return response;
+        } catch (CompletionException e) {
+            System.err.println("Request failed: " + e.getCause().getMessage());
+            return null;
         }
-
-        return buffer.array();
     }
 
-    public void sendRequest(int operationCode, String filename, int offset, String content, String requestId)
-            throws Exception {
-        byte[] requestBytes = prepareRequest(operationCode, filename, offset, content, requestId);
-        DatagramPacket requestPacket = new DatagramPacket(requestBytes, requestBytes.length, serverAddress, serverPort);
-    
-        // Simulate packet loss
-        double lossProbability = 0.1; // 10% probability for loss
-        double probability = new Random().nextDouble();
-
-        if (probability < lossProbability) {
-            System.out.println("Client Request Dropped: Simulated Packet Loss");
-            return; // Early return simulates packet loss; request is not sent
+    // prints the reply and returns its text if the operation succeeded, or null otherwise
+    private String printResponse(AsyncClient.Response response) {
+        if (response == null) {
+            return null;
+        }
+        String text = response.text();
+        if (!response.isOk()) {
+            System.err.println("Server error: " + Protocol.statusText(response.status) + ": " + text);
+            return null;
         }
-    
-        socket.send(requestPacket);
-        System.out.println("Request sent.");
+        System.out.println("Server response: " + text);
+        return text;
     }
 
-    // implementing unmarshalling and receiving responses
-    public boolean receiveResponse(String filename, int operationCode, int offset, String content) throws Exception {
-        final boolean[] responseReceived = { false };
-        final byte[] buffer = new byte[65535];
-        final DatagramPacket responsePacket = new DatagramPacket(buffer, buffer.length);
-
-        socket.setSoTimeout(5000); // Set a 5-second timeout for the response
-
-        try {
-            // System.out.println("before");
-            socket.receive(responsePacket); // This call is blocking
-            responseReceived[0] = true;
-
-            // System.out.println("i hv reached!");
-
-            String response = Marshaller
-                    .unmarshallString(Arrays.copyOfRange(responsePacket.getData(), 0, responsePacket.getLength()));
-
-            if (response.startsWith("Error:")) {
-                System.err.println("Server error: " + response);
-            } else {
-                System.out.println("Server response: " + response);
-
-                if (operationCode == 1) {
-                    String cacheName = filename + "readFile" + String.valueOf(offset) + content;
-
-                    // Update cache with new content and reset validation time
-                    cache.compute(cacheName, (key, entry) -> {
-                        if (entry == null) {
-                            return new CacheEntry(response);
-                        } else {
-                            entry.updateContent(response);
-                            return entry;
-                        }
-                    });
-                } else if (operationCode == 4) {
-                    String cacheName = filename + "fileInfo";
-
-                    // Update cache with new content and reset validation time
-                    cache.compute(cacheName, (key, entry) -> {
-                        if (entry == null) {
-                            return new CacheEntry(response);
-                        } else {
-                            entry.updateContent(response);
-                            return entry;
-                        }
-                    });
-                }
+    // prints the outcome of every operation in a batch reply
+    private void printBatchResponse(List<Protocol.Operation> operations, AsyncClient.Response reply) {
+        if (reply == null) {
+            return;
+        }
+        if (!reply.isOk()) {
+            System.err.println("Server error: " + Protocol.statusText(reply.status) + ": " + reply.text());
+            return;
+        }
+        List<Protocol.Result> results = Protocol.decodeBatchReplyBody(ByteBuffer.wrap(reply.body));
+        for (int i = 0; i < results.size(); i++) {
+            Protocol.Result result = results.get(i);
+            Protocol.Operation operation = operations.get(i);
+            String response = Marshaller.unmarshallString(result.body);
+            if (result.status != Protocol.STATUS_OK) {
+                System.err.println("[" + (i + 1) + "] Server error: " + Protocol.statusText(result.status) + ": "
+                        + response);
+                continue;
+            }
+            System.out.println("[" + (i + 1) + "] Server response: " + response);
+            if (operation.operationCode == Protocol.OP_GET_INFO) {
+                cacheResult(operation.fileName + "fileInfo", response);
+            } else if (operation.operationCode == Protocol.OP_INSERT || operation.operationCode == Protocol.OP_APPEND) {
+                written(operation.fileName);
             }
-            return true;
-
-        } catch (SocketTimeoutException e) {
-            // Handle the case where socket.receive times out
-            System.out.println("Socket timeout reached.");
-            return false;
-        } catch (Exception e) {
-            System.out.println("Error receiving response: " + e.getMessage());
-            return false;
-        } finally {
-            if (!responseReceived[0])
-                return false; // Ensure to cancel timeout task on early exit
         }
     }
 
-    // implement monitor-specific response handling
-    public boolean monitor_receiveResponse(String filename, int operationCode, int offset, String content, int timeout)
-            throws Exception {
-        final boolean[] responseReceived = { false };
-        final byte[] buffer = new byte[65535];
-        final DatagramPacket responsePacket = new DatagramPacket(buffer, buffer.length);
-
-        socket.setSoTimeout(timeout * 1000); // Set a 5-second timeout for the response
-
-        try {
-            socket.receive(responsePacket); // This call is blocking
-            responseReceived[0] = true;
-            String response = Marshaller
-                    .unmarshallString(Arrays.copyOfRange(responsePacket.getData(), 0, responsePacket.getLength()));
-
-            if (response.startsWith("Error:")) {
-                System.err.println("Server error: " + response);
+    // Update cache with new content and reset validation time
+    private void cacheResult(String cacheName, String response) {
+        cache.compute(cacheName, (key, entry) -> {
+            if (entry == null) {
+                return new CacheEntry(response);
             } else {
-                System.out.println("Server response: " + response);
-
-                if (operationCode == 1) {
-                    String cacheName = filename + "readFile" + String.valueOf(offset) + content;
-
-                    // Update cache with new content and reset validation time
-                    cache.compute(cacheName, (key, entry) -> {
-                        if (entry == null) {
-                            return new CacheEntry(response);
-                        } else {
-                            entry.updateContent(response);
-                            return entry;
-                        }
-                    });
-                } else if (operationCode == 4) {
-                    String cacheName = filename + "fileInfo";
-
-                    // Update cache with new content and reset validation time
-                    cache.compute(cacheName, (key, entry) -> {
-                        if (entry == null) {
-                            return new CacheEntry(response);
-                        } else {
-                            entry.updateContent(response);
-                            return entry;
-                        }
-                    });
-                }
+                entry.updateContent(response);
+                return entry;
             }
-            return true;
-
-        } catch (SocketTimeoutException e) {
-            // Handle the case where socket.receive times out
-            System.out.println("Socket timeout reached.");
-            return false;
-        } catch (Exception e) {
-            System.out.println("Error receiving response: " + e.getMessage());
-            return false;
-        } finally {
-            if (!responseReceived[0])
-                return false; // Ensure to cancel timeout task on early exit
-        }
+        });
     }
 
     // Implement a method to check if cached content is still fresh based on a
@@ -227,8 +143,6 @@ public class Client {
     // MAIN INTERFACE
     // Move the while loop logic to the start method
     public void start() {
-        int requestId = 1; // Initialize requestId here
-
         try {
             while (true) {
                 System.out.println("\nSelect an operation:");
@@ -237,6 +151,9 @@ public class Client {
                 System.out.println("3 - Monitor file updates");
                 System.out.println("4 - Get file info");
                 System.out.println("5 - Append file content");
+                System.out.println("6 - Run several operations in one request");
+                System.out.println("7 - Show round-trip, retransmission and cache statistics");
+                System.out.println("8 - Flush buffered appends");
                 System.out.println("0 - Exit");
                 System.out.print("Enter choice: ");
 
@@ -251,19 +168,33 @@ public class Client {
 
                 switch (choice) {
                     case 1:
-                        performReadOperation(requestId);
+                        performReadOperation();
                         break;
                     case 2:
-                        performInsertOperation(requestId);
+                        performInsertOperation();
                         break;
                     case 3:
-                        performMonitorOperation(requestId);
+                        performMonitorOperation();
                         break;
                     case 4:
-                        performGetFileInfoOperation(requestId);
+                        performGetFileInfoOperation();
                         break;
                     case 5:
-                        performAppendContentOperation(requestId);
+                        performAppendContentOperation();
+                        break;
+                    case 6:
+                        performBatchOperation();
+                        break;
+                    case 7:
+                        System.out.println(server.statistics());
+                        System.out.println(blocks);
+                        System.out.println(readAhead);
+                        if (appends != null) {
+                            System.out.println(appends);
+                        }
+                        break;
+                    case 8:
+                        performFlushOperation();
                         break;
                     case 0:
                         System.out.println("Exiting...");
@@ -272,21 +203,19 @@ public class Client {
                         System.out.println("Invalid choice.");
                         break;
                 }
-
-                requestId += 1;
             }
         } finally {
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
-                System.out.println("Socket closed.");
+            if (appends != null) {
+                // buffered appends are sent, and answered, before the socket closes
+                appends.close();
             }
+            server.close();
+            System.out.println("Socket closed.");
         }
     }
 
     // THE FUNCTIONS
-    private void performReadOperation(int requestId) {
-        String uniqueReq = uniqueID + "_" + String.valueOf(requestId);
-
+    private void performReadOperation() {
         System.out.println("Enter filename:");
         String filename = scanner.nextLine();
 
@@ -310,34 +239,96 @@ public class Client {
             bytesToRead = scanner.nextInt();
         }
 
-        String string_bytesToRead = String.valueOf(bytesToRead);
-
         scanner.nextLine(); // consume newline
 
-        String cacheName = filename + "readFile" + String.valueOf(offset) + string_bytesToRead;
+        settle(filename);
+        try {
+            // a sequential read sends the prefetches after it before it is served, and a prefetch
+            // of the range still in flight is waited for rather than repeated
+            readAhead.onRead(filename, offset, bytesToRead);
+            readAhead.await(filename, offset, bytesToRead);
+            if (blocks.beyondEnd(filename, offset)) {
+                // a fresh copy shows the offset is bad, but a stale one may predate the file growing
+                if (blocks.isFresh(filename, freshnessInterval)) {
+                    printBadOffset();
+                } else {
+                    printResponse(await(server.read(filename, offset, bytesToRead)));
+                }
+                return;
+            }
+            byte[] cached = blocks.get(filename, offset, bytesToRead);
+            if (cached != null && blocks.isFresh(filename, freshnessInterval)) {
+                System.out.println("Cached content: " + Marshaller.unmarshallString(cached));
+                return;
+            }
+            if (cached == null && bytesToRead > blocks.budget()) {
+                // too large to cache, so read it as it is
+                printResponse(await(server.read(filename, offset, bytesToRead)));
+                return;
+            }
+            // a stale range is validated with the server, which only sends its blocks again if the
+            // file has changed, and otherwise only the missing blocks are fetched. if the file has
+            // changed since the other blocks were cached, they are dropped and fetched in turn
+            int[] span = cached != null ? BlockCache.span(offset, bytesToRead)
+                    : blocks.missing(filename, offset, bytesToRead);
+            long version = cached != null ? blocks.version(filename) : 0;
+            for (int attempt = 0; attempt < 2; attempt++) {
+                // a lease counts from when it was asked for, so it never outlasts the server's
+                long requestedAt = System.currentTimeMillis();
+                AsyncClient.Response response = await(
+                        server.readIfModified(filename, span[0], span[1] - span[0], version, true));
+                if (response == null) {
+                    return;
+                }
+                readAhead.observe(System.currentTimeMillis() - requestedAt);
+                if (cached != null) {
+                    blocks.validated(filename, response.status == Protocol.STATUS_NOT_MODIFIED);
+                }
+                if (cached != null && response.status == Protocol.STATUS_NOT_MODIFIED) {
+                    if (response.leaseSeconds > 0) {
+                        blocks.leased(filename, version, requestedAt + response.leaseSeconds * 1000L);
+                    }
+                    System.out.println("Cached content (not modified): " + Marshaller.unmarshallString(cached));
+                    return;
+                }
+                if (!response.isOk()) {
+                    printResponse(response);
+                    return;
+                }
+                ByteBuffer body = ByteBuffer.wrap(response.body);
+                long fetchedVersion = body.getLong();
+                byte[] data = new byte[body.remaining()];
+                body.get(data);
+                blocks.put(filename, fetchedVersion, span[0], data, span[1] - span[0]);
+                if (response.leaseSeconds > 0) {
+                    blocks.leased(filename, fetchedVersion, requestedAt + response.leaseSeconds * 1000L);
+                }
 
-        // Check cache first
-        if (cache.containsKey(cacheName) && isCacheFresh(cacheName)) {
-            System.out.println("Cached content: " + cache.get(cacheName).content);
-        } else {
-            // Proceed to fetch from the server and update cache
-            // Construct and send the request
-            try {
-                boolean success = false;
-
-                while (!success) {
-                    sendRequest(1, filename, offset, string_bytesToRead, uniqueReq);
-                    success = receiveResponse(filename, 1, offset, string_bytesToRead);
+                byte[] content = blocks.get(filename, offset, bytesToRead);
+                if (content != null) {
+                    System.out.println("Server response: " + Marshaller.unmarshallString(content));
+                    return;
+                }
+                if (blocks.beyondEnd(filename, offset)) {
+                    printBadOffset(); // the end of the file was just fetched
+                    return;
                 }
-            } catch (Exception e) {
-                System.err.println("Error during operation: " + e.getMessage());
+                cached = null;
+                span = blocks.missing(filename, offset, bytesToRead);
+                version = 0;
             }
+            System.err.println("Request failed: the file kept changing while it was read.");
+        } finally {
+            readAhead.served(filename);
         }
     }
 
-    private void performInsertOperation(int requestId) {
-        String uniqueReq = uniqueID + "_" + String.valueOf(requestId);
+    private static void printBadOffset() {
+        System.err.println("Server error: " + Protocol.statusText(Protocol.STATUS_BAD_OFFSET)
+                + ": Offset provided exceeds the current file length");
+    }
 
+    private void performInsertOperation() {
         System.out.println("Enter filename:");
         String filename = scanner.nextLine();
         int offset = -1;
@@ -355,21 +346,14 @@ public class Client {
 
         String content = scanner.nextLine();
 
-        try {
-            boolean success = false;
-
-            while (!success) {
-                sendRequest(2, filename, offset, content, uniqueReq);
-                success = receiveResponse(filename, 1, offset, content);
-            }
-        } catch (Exception e) {
-            System.err.println("Error during insert operation: " + e.getMessage());
+        settle(filename);
+        if (printResponse(await(server.insert(filename, offset, Marshaller.marshall(content)))) != null) {
+            // the insert shifted every cached block after the offset
+            written(filename);
         }
     }
 
-    private void performMonitorOperation(int requestId) {
-        String uniqueReq = uniqueID + "_" + String.valueOf(requestId);
-
+    private void performMonitorOperation() {
         System.out.println("Enter filename to monitor:");
         String filename = scanner.nextLine();
         int monitorInterval = -1;
@@ -386,84 +370,148 @@ public class Client {
 
         final long endTime = System.currentTimeMillis() + (monitorInterval * 1000);
 
+        // updates are printed by the receiver thread as they arrive, until the interval is over
+        AsyncClient.Response registration = await(server.monitor(filename, monitorInterval,
+                update -> System.out.println("Server response: " + Marshaller.unmarshallString(update))));
+        if (printResponse(registration) == null) {
+            return;
+        }
         try {
-            // Preparing and sending the monitor request; ensuring it's sent through
-            boolean success = false;
-            while (!success) {
-                sendRequest(3, filename, monitorInterval, "", uniqueReq); // Empty string for content as it's not needed
-                success = receiveResponse(filename, 3, 0, "");
-            }
-
-            // Starting a new thread to listen for updates
-            while (System.currentTimeMillis() < endTime) {
-                try {
-                    monitor_receiveResponse(filename, 3, 0, "", monitorInterval); // This method handles any incoming
-                                                                                  // updates
-                } catch (Exception e) {
-                    System.err.println("Error while monitoring updates: " + e.getMessage());
-                    break; // Exit the loop in case of an error
-                }
-            }
-            System.out.println("Monitoring period has ended.");
-        } catch (Exception e) {
-            System.err.println("Error during monitor operation setup: " + e.getMessage());
+            Thread.sleep(Math.max(0, endTime - System.currentTimeMillis()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        System.out.println("Monitoring period has ended.");
     }
 
-    private void performGetFileInfoOperation(int requestId) {
-        String uniqueReq = uniqueID + "_" + String.valueOf(requestId);
-
+    private void performGetFileInfoOperation() {
         System.out.println("Enter filename to get info:");
         String filename = scanner.nextLine();
+        settle(filename);
 
         // Check cache first
-        if (cache.containsKey(filename) && isCacheFresh(filename)) {
-            System.out.println("Cached content: " + cache.get(filename).content);
+        String cacheName = filename + "fileInfo";
+        if (cache.containsKey(cacheName) && isCacheFresh(cacheName)) {
+            System.out.println("Cached content: " + cache.get(cacheName).content);
         } else {
-            try {
-                boolean success = false;
-
-                while (!success) {
-                    sendRequest(4, filename, 0, null, uniqueReq); // Offset and content are not needed here.
-                    success = receiveResponse(filename, 4, 0, null);
-                }
-            } catch (Exception e) {
-                System.err.println("Error getting file info: " + e.getMessage());
+            String response = printResponse(await(server.getFileInfo(filename)));
+            if (response != null) {
+                cacheResult(cacheName, response);
             }
         }
     }
 
-    private void performAppendContentOperation(int requestId) {
-        String uniqueReq = uniqueID + "_" + String.valueOf(requestId);
-
+    private void performAppendContentOperation() {
         System.out.println("Enter filename to append content:");
         String filename = scanner.nextLine();
         System.out.println("Enter content to append:");
         String content = scanner.nextLine();
 
-        try {
-            boolean success = false;
+        if (appends != null) {
+            appends.append(filename, Marshaller.marshall(content));
+            System.out.println("Append buffered, to be sent within " + writeBehindMillis + " ms or once "
+                    + AppendBuffer.FLUSH_BYTES + " bytes are buffered for the file.");
+            return;
+        }
+        if (printResponse(await(server.append(filename, Marshaller.marshall(content)))) != null) {
+            written(filename);
+        }
+    }
 
-            while (!success) {
-                sendRequest(5, filename, 0, content, uniqueReq); // Offset is not needed; assuming append happens at the
-                                                                 // end.
-                success = receiveResponse(filename, 5, 0, content);
+    // sends every buffered append and waits until the server has answered each flush
+    private void performFlushOperation() {
+        if (appends == null) {
+            System.out.println("Appends are not buffered.");
+            return;
+        }
+        appends.flushAll().join();
+        System.out.println("Buffered appends flushed.");
+    }
+
+    // waits for the file's buffered appends to be applied, so that what follows sees them and is
+    // ordered after them
+    private void settle(String filename) {
+        if (appends != null) {
+            appends.flush(filename).join();
+        }
+    }
+
+    // drops what is cached of a file this client has changed, including prefetches still in flight
+    private void written(String filename) {
+        readAhead.forget(filename);
+        blocks.invalidate(filename);
+    }
+
+    // gathers reads, inserts, file info and appends and sends them as one batch, so they share a
+    // single round trip and retry timer
+    private void performBatchOperation() {
+        int count = readNonNegativeInt("Enter number of operations:");
+        List<Protocol.Operation> operations = new ArrayList<>();
+        while (operations.size() < count) {
+            int operationCode = readNonNegativeInt(
+                    "Enter operation " + (operations.size() + 1) + " (1 - read, 2 - insert, 4 - file info, 5 - append):");
+            if (operationCode != 1 && operationCode != 2 && operationCode != 4 && operationCode != 5) {
+                System.out.println("Invalid choice.");
+                continue;
+            }
+            System.out.println("Enter filename:");
+            String filename = scanner.nextLine();
+            int offset = 0;
+            int length = 0;
+            String content = null;
+            if (operationCode == 1 || operationCode == 2) {
+                offset = readNonNegativeInt("Enter offset:");
+            }
+            if (operationCode == 1) {
+                length = readNonNegativeInt("Enter number of bytes to read:");
+            } else if (operationCode == 2 || operationCode == 5) {
+                System.out.println("Enter content:");
+                content = scanner.nextLine();
+            }
+            operations.add(new Protocol.Operation((byte) operationCode, offset, length, filename,
+                    content != null ? Marshaller.marshall(content) : null));
+        }
+
+        for (Protocol.Operation operation : operations) {
+            settle(operation.fileName);
+        }
+        printBatchResponse(operations, await(server.batch(operations)));
+    }
+
+    private int readNonNegativeInt(String prompt) {
+        int value = -1;
+        while (value < 0) {
+            System.out.println(prompt);
+            while (!scanner.hasNextInt()) {
+                System.out.println("Please enter a valid integer:");
+                scanner.next(); // consume the non-integer input
             }
-        } catch (Exception e) {
-            System.err.println("Error during append operation: " + e.getMessage());
+            value = scanner.nextInt();
         }
+        scanner.nextLine(); // consume newline
+        return value;
     }
 
     public static void main(String[] args) throws Exception {
-        if (args.length != 3) {
-            System.out.println("Usage: java Client <server IP> <server port> <freshnessInterval>");
+        if (args.length < 3 || args.length > 6) {
+            System.out.println("Usage: java Client <server IP> <server port> <freshnessInterval> [cacheBudget]"
+                    + " [readAheadDepth] [writeBehindMillis]");
             System.out.println("<freshnessInterval>: in seconds");
+            System.out.println("[cacheBudget]: bytes of file content cached, defaults to " + DEFAULT_CACHE_BUDGET);
+            System.out.println("[readAheadDepth]: windows prefetched ahead of a sequential reader at most, 0 disables"
+                    + " read-ahead, defaults to " + DEFAULT_READ_AHEAD);
+            System.out.println("[writeBehindMillis]: how long appends are buffered before they are sent, 0 sends"
+                    + " each at once, defaults to 0");
             return;
         }
 
         long freshnessInterval = Long.parseLong(args[2]) * 1000;
+        long cacheBudget = args.length >= 4 ? Long.parseLong(args[3]) : DEFAULT_CACHE_BUDGET;
+        int readAheadDepth = args.length >= 5 ? Integer.parseInt(args[4]) : DEFAULT_READ_AHEAD;
+        long writeBehindMillis = args.length == 6 ? Long.parseLong(args[5]) : 0;
 
-        Client client = new Client(args[0], Integer.parseInt(args[1]), freshnessInterval);
+        Client client = new Client(args[0], Integer.parseInt(args[1]), freshnessInterval, cacheBudget,
+                readAheadDepth, writeBehindMillis);
         client.start();
     }
 }
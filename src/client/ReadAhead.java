@@ -0,0 +1,212 @@
+package src.client;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// detects files read front to back and fetches the windows after a read into the block cache
+// before they are asked for. a read that starts within or at the end of the previous read of the
+// same file continues the file's run, and from the second read of a run on, the windows after it
+// are prefetched, each as long as the read rounded up to whole blocks. enough windows are kept in
+// flight to cover the time a fetch takes, given how long the reader takes between finishing one
+// read and starting the next, up to the maximum depth and a quarter of the cache budget
+class ReadAhead {
+    private static final int MAX_RUNS = 64; // files whose runs are tracked at once
+    private static final double SMOOTHING = 0.125; // weight of a new sample in the moving averages
+
+    // what is known about the latest reads of one file
+    private static final class Run {
+        int offset; // of the latest read
+        int next = -1; // where the latest read ended
+        int reads; // in the run so far
+        long servedAt; // when the latest read was answered, 0 while it is being served
+        boolean dropped; // set once the file has been written, so fetches in flight are stale
+        final Map<Integer, Prefetch> inFlight = new HashMap<>(); // by window start
+    }
+
+    private static final class Prefetch {
+        final int end;
+        final CompletableFuture<Void> done; // completes once the reply has been stored
+
+        Prefetch(int end, CompletableFuture<Void> done) {
+            this.end = end;
+            this.done = done;
+        }
+    }
+
+    private final AsyncClient server;
+    private final BlockCache blocks;
+    private final int maxDepth;
+    private final LinkedHashMap<String, Run> runs = new LinkedHashMap<>(16, 0.75f, true) { // access order
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Run> eldest) {
+            return size() > MAX_RUNS;
+        }
+    };
+    private double latencyMillis = -1; // from sending a read to its reply, retries included, -1 until one is seen
+    private double gapMillis = -1; // from answering one read of a run to the next read, -1 until one is seen
+    private int depth;
+    private long prefetches;
+    private long failures;
+
+    ReadAhead(AsyncClient server, BlockCache blocks, int maxDepth) {
+        this.server = server;
+        this.blocks = blocks;
+        this.maxDepth = maxDepth;
+    }
+
+    // waits for the prefetches of the range that are still in flight, so that the read finds their
+    // blocks instead of fetching them again
+    void await(String filename, int offset, int length) {
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        synchronized (this) {
+            Run run = runs.get(filename);
+            if (run == null) {
+                return;
+            }
+            for (Map.Entry<Integer, Prefetch> entry : run.inFlight.entrySet()) {
+                if (entry.getKey() < offset + Math.max(length, 1) && entry.getValue().end > offset) {
+                    pending.add(entry.getValue().done);
+                }
+            }
+        }
+        for (CompletableFuture<Void> prefetch : pending) {
+            try {
+                prefetch.join();
+            } catch (CompletionException e) {
+                // the read fetches the range itself
+            }
+        }
+    }
+
+    // records a read of the range, and prefetches the windows after it if it continues a run
+    synchronized void onRead(String filename, int offset, int length) {
+        if (maxDepth == 0 || length <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Run run = runs.computeIfAbsent(filename, k -> new Run());
+        if (run.next >= 0 && offset > run.offset && offset <= run.next) {
+            if (run.servedAt > 0) {
+                gapMillis = smooth(gapMillis, now - run.servedAt);
+            }
+            run.reads++;
+        } else {
+            run.reads = 1;
+        }
+        run.offset = offset;
+        run.next = offset + length;
+        run.servedAt = 0;
+        if (run.reads < 2) {
+            return;
+        }
+
+        int window = window(length);
+        depth = Math.min(targetDepth(), (int) Math.min(maxDepth, blocks.budget() / 4 / window));
+        int first = BlockCache.span(offset, length)[1];
+        int fileLength = blocks.length(filename);
+        for (int i = 0; i < depth; i++) {
+            int start = first + i * window;
+            if (fileLength >= 0 && start >= fileLength) {
+                break;
+            }
+            if (run.inFlight.containsKey(start) || blocks.contains(filename, start, start + window)) {
+                continue;
+            }
+            prefetch(filename, run, start, window);
+        }
+    }
+
+    // the windows the latest read kept in flight, at most
+    synchronized int depth() {
+        return depth;
+    }
+
+    // the windows needed in flight for the next one to have arrived by the time it is read
+    private int targetDepth() {
+        if (latencyMillis < 0) {
+            return 1;
+        }
+        return (int) Math.max(1, Math.min(maxDepth, Math.ceil(latencyMillis / Math.max(gapMillis, 1))));
+    }
+
+    private static int window(int length) {
+        return Math.max(1, (length + BlockCache.BLOCK_SIZE - 1) / BlockCache.BLOCK_SIZE) * BlockCache.BLOCK_SIZE;
+    }
+
+    // called with the lock held. the reply is stored on the receiver thread
+    private void prefetch(String filename, Run run, int start, int window) {
+        long sentAt = System.currentTimeMillis();
+        CompletableFuture<Void> done = server.readIfModified(filename, start, window, 0, true)
+                .handle((response, error) -> {
+                    fetched(filename, run, start, window, sentAt, error == null ? response : null);
+                    return null;
+                });
+        run.inFlight.put(start, new Prefetch(start + window, done));
+        if (done.isDone()) {
+            run.inFlight.remove(start);
+        }
+        prefetches++;
+    }
+
+    // stores the prefetched window, with the lock held so that a write the client makes meanwhile
+    // either drops it afterwards or has it ignored
+    private synchronized void fetched(String filename, Run run, int start, int window, long sentAt,
+            AsyncClient.Response response) {
+        run.inFlight.remove(start);
+        if (response == null || !response.isOk()) {
+            failures++;
+            return;
+        }
+        observe(System.currentTimeMillis() - sentAt);
+        if (run.dropped) {
+            return;
+        }
+        ByteBuffer body = ByteBuffer.wrap(response.body);
+        long version = body.getLong();
+        byte[] data = new byte[body.remaining()];
+        body.get(data);
+        blocks.putPrefetched(filename, version, start, data, window);
+        if (response.leaseSeconds > 0) {
+            blocks.leased(filename, version, sentAt + response.leaseSeconds * 1000L);
+        }
+    }
+
+    // records that the latest read of the file has been answered
+    synchronized void served(String filename) {
+        Run run = runs.get(filename);
+        if (run != null) {
+            run.servedAt = System.currentTimeMillis();
+        }
+    }
+
+    // records how long a read took to be answered
+    synchronized void observe(long millis) {
+        latencyMillis = smooth(latencyMillis, millis);
+    }
+
+    private static double smooth(double average, long sample) {
+        return average < 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+
+    // forgets the file's run when this client writes to it, and ignores its prefetches in flight.
+    // called before the file's blocks are dropped, so none of them is stored afterwards
+    synchronized void forget(String filename) {
+        Run run = runs.remove(filename);
+        if (run != null) {
+            run.dropped = true;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Read-ahead: " + prefetches + " prefetches (" + failures + " failed), depth " + depth + " of " + maxDepth
+                + ", read latency " + Math.round(Math.max(latencyMillis, 0)) + " ms, time between reads "
+                + Math.round(Math.max(gapMillis, 0)) + " ms";
+    }
+}
@@ -0,0 +1,85 @@
+package src.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// estimates the round-trip time to the server and derives how long to wait for a reply before
+// sending a request again, following RFC 6298: a smoothed RTT and RTT variance give the
+// retransmission timeout, which doubles with every retry of the same request. only replies to
+// requests that were sent once are measured, since a reply to a resent request could answer
+// any of its copies (Karn's rule)
+class RetransmissionTimer {
+    static final int MAX_ATTEMPTS = 30; // sends of one request before giving up on it
+    private static final long INITIAL_RTO_MILLIS = 1000;
+    private static final long MIN_RTO_MILLIS = 200;
+    private static final long MAX_RTO_MILLIS = 5000;
+
+    private double smoothedRtt = -1; // milliseconds, negative until the first sample
+    private double rttVariance;
+    private long rto = INITIAL_RTO_MILLIS;
+
+    private long requests;
+    private long retransmissions;
+    private long timeouts;
+    private long failures;
+    private long samples;
+    private double minRtt = Double.MAX_VALUE;
+    private double maxRtt;
+
+    // milliseconds to wait for a reply to the given attempt, counting from 1. retries back off
+    // exponentially up to the cap, and then wait between half and all of that, so clients that
+    // lost replies at the same time do not all resend at once, even once their timeouts are capped
+    synchronized int timeout(int attempt) {
+        if (attempt == 1) {
+            requests++;
+            return (int) rto;
+        }
+        retransmissions++;
+        long backedOff = Math.min(MAX_RTO_MILLIS, rto << Math.min(attempt - 1, 16));
+        long jitter = ThreadLocalRandom.current().nextLong(backedOff / 2 + 1);
+        return (int) (backedOff - jitter);
+    }
+
+    // records the reply to an attempt, which was received elapsedNanos after the attempt was sent
+    synchronized void replied(int attempt, long elapsedNanos, boolean measurable) {
+        if (attempt != 1 || !measurable) {
+            return;
+        }
+        double rtt = elapsedNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        if (smoothedRtt < 0) {
+            smoothedRtt = rtt;
+            rttVariance = rtt / 2;
+        } else {
+            rttVariance = 0.75 * rttVariance + 0.25 * Math.abs(smoothedRtt - rtt);
+            smoothedRtt = 0.875 * smoothedRtt + 0.125 * rtt;
+        }
+        rto = Math.max(MIN_RTO_MILLIS, Math.min(MAX_RTO_MILLIS, (long) Math.ceil(smoothedRtt + 4 * rttVariance)));
+        samples++;
+        minRtt = Math.min(minRtt, rtt);
+        maxRtt = Math.max(maxRtt, rtt);
+    }
+
+    synchronized void timedOut() {
+        timeouts++;
+    }
+
+    synchronized void gaveUp() {
+        failures++;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder stats = new StringBuilder();
+        stats.append("Requests: ").append(requests)
+                .append(", retransmissions: ").append(retransmissions)
+                .append(", timeouts: ").append(timeouts)
+                .append(", given up: ").append(failures).append('\n');
+        if (samples == 0) {
+            stats.append("No round trips measured yet");
+        } else {
+            stats.append(String.format("RTT samples: %d, smoothed: %.2f ms, variance: %.2f ms, min: %.2f ms, max: %.2f ms",
+                    samples, smoothedRtt, rttVariance, minRtt, maxRtt));
+        }
+        return stats.append("\nRetransmission timeout: ").append(rto).append(" ms").toString();
+    }
+}
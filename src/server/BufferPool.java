@@ -0,0 +1,40 @@
+package src.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// fixed set of reusable buffers for the datagram send path, so that
+// steady-state traffic does not allocate a new buffer per packet
+class BufferPool {
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    private final int bufferSize;
+    private final boolean direct;
+
+    BufferPool(int capacity, int bufferSize, boolean direct) {
+        this.free = new ArrayBlockingQueue<>(capacity);
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        for (int i = 0; i < capacity; i++) {
+            free.offer(allocate());
+        }
+    }
+
+    // hands out a cleared buffer, allocating a new one only when the pool is empty
+    ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            buffer = allocate();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    // buffers handed back while the pool is already full are left to the garbage collector
+    void release(ByteBuffer buffer) {
+        free.offer(buffer);
+    }
+
+    private ByteBuffer allocate() {
+        return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+}
@@ -0,0 +1,163 @@
+package src.server;
+
+import src.utils.Protocol;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// a framed message streamed to one client as numbered chunks. at most window chunks past the
+// first unacknowledged one are in flight at a time. acknowledgements report every chunk that has
+// arrived, and only missing chunks are sent again: straight away once a chunk sent after them has
+// been acknowledged, or once they have gone unacknowledged for a retransmission timeout
+class ChunkedTransfer {
+    interface Sender {
+        void send(byte[] datagram, Listener listener, SocketAddress client) throws IOException;
+    }
+
+    // identifies a transfer among those in progress
+    static final class Key {
+        final long clientId;
+        final int transferId;
+
+        Key(long clientId, int transferId) {
+            this.clientId = clientId;
+            this.transferId = transferId;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).clientId == clientId
+                    && ((Key) other).transferId == transferId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(clientId) * 31 + transferId;
+        }
+    }
+
+    static final long RETRANSMIT_MILLIS = 200;
+    private static final int MAX_IDLE_TIMEOUTS = 50; // timeouts in a row without progress before giving up
+
+    final int id;
+    private final byte[] message;
+    private final int chunkSize;
+    private final int chunkCount;
+    private final int window;
+    private final Listener listener;
+    private final SocketAddress client;
+    private final Sender sender;
+
+    private final boolean[] acknowledged;
+    private final long[] sentAt; // System.nanoTime() of each chunk's latest send
+    private final long[] sendOrder; // position of each chunk's latest send among all sends
+    private long sends;
+    private long latestAcknowledgedSend; // send order of the most recently sent chunk known to have arrived
+    private int received; // chunks acknowledged from the start without a gap
+    private int nextUnsent;
+    private int idleTimeouts;
+    private boolean finished;
+    ScheduledFuture<?> timer; // runs onTimeout() until the transfer finishes
+
+    ChunkedTransfer(int id, byte[] message, int chunkSize, int window, Listener listener, SocketAddress client,
+            Sender sender) {
+        this.id = id;
+        this.message = message;
+        this.chunkSize = chunkSize;
+        this.chunkCount = Protocol.chunkCount(message.length, chunkSize);
+        this.window = window;
+        this.listener = listener;
+        this.client = client;
+        this.sender = sender;
+        this.acknowledged = new boolean[chunkCount];
+        this.sentAt = new long[chunkCount];
+        this.sendOrder = new long[chunkCount];
+    }
+
+    synchronized void start() {
+        fillWindow();
+    }
+
+    // applies an acknowledgement and returns true once every chunk has arrived
+    synchronized boolean acknowledge(int receivedPrefix, long selective) {
+        if (finished) {
+            return true;
+        }
+        boolean progress = false;
+        for (int i = received; i < Math.min(receivedPrefix, nextUnsent); i++) {
+            progress |= markAcknowledged(i);
+        }
+        for (int bit = 0; bit < Protocol.SELECTIVE_ACK_CHUNKS; bit++) {
+            int index = receivedPrefix + 1 + bit;
+            if ((selective >>> bit & 1) != 0 && index < nextUnsent) {
+                progress |= markAcknowledged(index);
+            }
+        }
+        while (received < chunkCount && acknowledged[received]) {
+            received++;
+        }
+        if (progress) {
+            idleTimeouts = 0;
+        }
+        if (received == chunkCount) {
+            finished = true;
+            return true;
+        }
+        // a chunk sent before one that has already arrived was most likely lost
+        for (int i = received; i < nextUnsent; i++) {
+            if (!acknowledged[i] && sendOrder[i] < latestAcknowledgedSend) {
+                send(i);
+            }
+        }
+        fillWindow();
+        return false;
+    }
+
+    // resends every chunk in flight that has gone unacknowledged for a whole timeout, and returns
+    // true if the transfer is over, either complete or abandoned
+    synchronized boolean onTimeout() {
+        if (finished) {
+            return true;
+        }
+        long threshold = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(RETRANSMIT_MILLIS);
+        boolean resent = false;
+        for (int i = received; i < nextUnsent; i++) {
+            if (!acknowledged[i] && sentAt[i] - threshold <= 0) {
+                send(i);
+                resent = true;
+            }
+        }
+        if (resent && ++idleTimeouts > MAX_IDLE_TIMEOUTS) {
+            System.err.println("Abandoning transfer " + id + " to " + client + " after " + received + " of "
+                    + chunkCount + " chunks.");
+            finished = true;
+        }
+        return finished;
+    }
+
+    private boolean markAcknowledged(int index) {
+        if (acknowledged[index]) {
+            return false;
+        }
+        acknowledged[index] = true;
+        latestAcknowledgedSend = Math.max(latestAcknowledgedSend, sendOrder[index]);
+        return true;
+    }
+
+    private void fillWindow() {
+        while (nextUnsent < chunkCount && nextUnsent < received + window) {
+            send(nextUnsent++);
+        }
+    }
+
+    private void send(int index) {
+        sentAt[index] = System.nanoTime();
+        sendOrder[index] = ++sends;
+        try {
+            sender.send(Protocol.encodeChunk(message, id, index, chunkSize), listener, client);
+        } catch (IOException e) {
+            System.err.println("Failed to send chunk " + index + " of transfer " + id + ": " + e.getMessage());
+        }
+    }
+}
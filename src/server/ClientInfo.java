@@ -0,0 +1,22 @@
+package src.server;
+
+import java.net.SocketAddress;
+
+// a monitor subscription: where its updates go and how they are framed
+class ClientInfo {
+    Listener listener; // the socket the subscription arrived on, reused for its updates
+    SocketAddress address;
+    byte version; // updates are framed the way the monitor request was
+    long clientId;
+    long sequence; // of the monitor request, echoed in every update
+    long expiryTime;
+
+    ClientInfo(Request request, long expiryTime) {
+        this.listener = request.listener;
+        this.address = request.client;
+        this.version = request.version;
+        this.clientId = request.clientId;
+        this.sequence = request.sequence;
+        this.expiryTime = expiryTime;
+    }
+}
@@ -0,0 +1,187 @@
+package src.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * At-most-once bookkeeping, keyed by client ID and sequence number. Each client numbers its
+ * requests in increasing order, so instead of remembering every request ID the table keeps a
+ * window of the latest sequence numbers per client, in a fixed ring of slots, along with the
+ * replies to those already handled.
+ *
+ * Each request also says how many sequence numbers below its own the client may still resend.
+ * Everything older has been answered, so those replies are dropped at once, and so are the
+ * replies pushed out of the window by newer requests. A request below the window is stale: it may
+ * have run and had its reply dropped, or never have arrived at all, so its outcome is unknown. It
+ * must not run now, and the client is told so instead. Memory is therefore bounded by the number
+ * of clients times the window.
+ *
+ * Replies to idempotent requests need not be kept here: such a request is recorded as done
+ * without its reply, and a duplicate may simply run again (see ReplyCache). Every other reply is
+ * pinned until it leaves the window.
+ *
+ * A client not heard from for the idle time is forgotten altogether. Each client has one expiry
+ * in the timing wheel, which is pushed back when it fires if the client has been seen since.
+ */
+class DedupTable {
+    enum Outcome {
+        NEW, // recorded, and should be handled
+        IN_PROGRESS, // a copy is still being handled, so this one is dropped
+        DONE, // already handled, and reply() holds the reply to resend
+        REPEATABLE, // already handled without keeping the reply, and safe to handle again
+        STALE // older than the client's window: refused, and whether it ran before is unknown
+    }
+
+    // the window of one client. slot i holds the latest sequence number congruent to i
+    private static final class ClientWindow {
+        final long[] sequences;
+        final byte[][] replies; // null while the request is in progress or if it was not kept
+        final boolean[] done;
+        final boolean[] used;
+        long floor; // sequence numbers below this are forgotten
+        volatile long lastSeen;
+        boolean retired; // removed from the table, so requests must record in a new window
+
+        ClientWindow(int window) {
+            sequences = new long[window];
+            replies = new byte[window][];
+            done = new boolean[window];
+            used = new boolean[window];
+        }
+
+        int slot(long sequence) {
+            return (int) Math.floorMod(sequence, (long) sequences.length);
+        }
+
+        boolean holds(long sequence) {
+            int slot = slot(sequence);
+            return used[slot] && sequences[slot] == sequence;
+        }
+
+        // forgets everything below the new floor, and returns the reply bytes dropped
+        long advance(long newFloor) {
+            if (newFloor <= floor) {
+                return 0;
+            }
+            floor = newFloor;
+            long dropped = 0;
+            for (int slot = 0; slot < sequences.length; slot++) {
+                if (used[slot] && sequences[slot] < floor) {
+                    dropped += replies[slot] == null ? 0 : replies[slot].length;
+                    used[slot] = false;
+                    replies[slot] = null;
+                }
+            }
+            return dropped;
+        }
+
+        synchronized long retainedBytes() {
+            long bytes = 0;
+            for (byte[] reply : replies) {
+                bytes += reply == null ? 0 : reply.length;
+            }
+            return bytes;
+        }
+    }
+
+    private final int window;
+    private final long idleMillis;
+    private final TimingWheel expiries;
+    private final ConcurrentHashMap<Long, ClientWindow> clients = new ConcurrentHashMap<>();
+    private final AtomicLong pinnedBytes = new AtomicLong();
+
+    DedupTable(int window, long idleMillis, TimingWheel expiries) {
+        this.window = window;
+        this.idleMillis = idleMillis;
+        this.expiries = expiries;
+    }
+
+    // records the request if it is new. outstanding is the number of sequence numbers below this
+    // one that the client may still resend
+    Outcome begin(long clientId, long sequence, int outstanding) {
+        while (true) {
+            ClientWindow client = clients.computeIfAbsent(clientId, k -> newWindow(k));
+            client.lastSeen = System.currentTimeMillis();
+            synchronized (client) {
+                if (!client.retired) {
+                    return record(client, sequence, outstanding);
+                }
+            }
+        }
+    }
+
+    private ClientWindow newWindow(long clientId) {
+        ClientWindow client = new ClientWindow(window);
+        client.lastSeen = System.currentTimeMillis();
+        expiries.schedule(client.lastSeen + idleMillis, () -> expireIfIdle(clientId, client));
+        return client;
+    }
+
+    // forgets the client if it has been idle for long enough, and otherwise waits until it could be
+    private void expireIfIdle(long clientId, ClientWindow client) {
+        long idleUntil = client.lastSeen + idleMillis;
+        if (idleUntil > System.currentTimeMillis()) {
+            expiries.schedule(idleUntil, () -> expireIfIdle(clientId, client));
+            return;
+        }
+        synchronized (client) {
+            client.retired = true;
+            pinnedBytes.addAndGet(-client.retainedBytes());
+        }
+        clients.remove(clientId, client);
+    }
+
+    // called with the client's lock held
+    private Outcome record(ClientWindow client, long sequence, int outstanding) {
+        if (client.holds(sequence)) {
+            int slot = client.slot(sequence);
+            if (!client.done[slot]) {
+                return Outcome.IN_PROGRESS;
+            }
+            return client.replies[slot] == null ? Outcome.REPEATABLE : Outcome.DONE;
+        }
+        if (sequence < client.floor) {
+            return Outcome.STALE;
+        }
+        pinnedBytes.addAndGet(-client.advance(Math.max(sequence - outstanding, sequence - window + 1)));
+        int slot = client.slot(sequence);
+        client.sequences[slot] = sequence;
+        client.replies[slot] = null;
+        client.done[slot] = false;
+        client.used[slot] = true;
+        return Outcome.NEW;
+    }
+
+    // marks the request as done and pins the reply for resending, unless the request has left the
+    // window in the meantime. a null reply records an idempotent request without keeping its reply
+    void complete(long clientId, long sequence, byte[] reply) {
+        ClientWindow client = clients.get(clientId);
+        if (client == null) {
+            return;
+        }
+        synchronized (client) {
+            if (!client.retired && client.holds(sequence)) {
+                int slot = client.slot(sequence);
+                client.replies[slot] = reply;
+                client.done[slot] = true;
+                pinnedBytes.addAndGet(reply == null ? 0 : reply.length);
+            }
+        }
+    }
+
+    // the reply to a handled request, or null if it has been dropped
+    byte[] reply(long clientId, long sequence) {
+        ClientWindow client = clients.get(clientId);
+        if (client == null) {
+            return null;
+        }
+        synchronized (client) {
+            return client.holds(sequence) ? client.replies[client.slot(sequence)] : null;
+        }
+    }
+
+    // bytes of replies pinned across all clients
+    long pinnedBytes() {
+        return pinnedBytes.get();
+    }
+}
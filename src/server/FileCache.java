@@ -0,0 +1,242 @@
+package src.server;
+
+import src.utils.FileHandler;
+import src.utils.InMemoryFile;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+// keeps recently used files resident so handlers do not re-read them from disk on every request.
+// callers must hold the file's lock from lockFor while using the returned InMemoryFile; the cache
+// itself only tries the locks of files it is evicting, so it can never deadlock with a handler.
+class FileCache {
+    private static class CachedFile {
+        InMemoryFile file;
+        long size;
+        boolean dirty; // modified in memory but not yet written back to disk
+        int persistedLength = -1; // while dirty, the length on disk if only appends happened since
+
+        CachedFile(InMemoryFile file) {
+            this.file = file;
+            this.size = estimateSize(file);
+        }
+    }
+
+    private final long budgetBytes;
+    private final boolean writeBack;
+    private final boolean durable; // write-backs replace files atomically and are synced to disk
+    private final Function<String, ReentrantReadWriteLock> lockFor;
+    private final LinkedHashMap<String, CachedFile> entries = new LinkedHashMap<>(16, 0.75f, true); // LRU order
+    private final Map<String, CachedFile> pendingWrites = new HashMap<>(); // evicted, write-back in progress
+    private long residentBytes;
+
+    FileCache(long budgetBytes, boolean writeBack, Function<String, ReentrantReadWriteLock> lockFor) {
+        this(budgetBytes, writeBack, false, lockFor);
+    }
+
+    FileCache(long budgetBytes, boolean writeBack, boolean durable, Function<String, ReentrantReadWriteLock> lockFor) {
+        this.budgetBytes = budgetBytes;
+        this.writeBack = writeBack;
+        this.durable = durable;
+        this.lockFor = lockFor;
+    }
+
+    // rough heap footprint of a resident file: its content bytes, the name's chars and object overhead
+    private static long estimateSize(InMemoryFile file) {
+        return file.getContentLength() + 2L * file.getFileName().length() + 64;
+    }
+
+    // returns the resident copy of a file, loading it from disk on a miss; null if it does not exist
+    InMemoryFile get(String filename) {
+        synchronized (this) {
+            CachedFile cached = entries.get(filename);
+            if (cached == null) {
+                // an evicted dirty file is newer than the disk copy until its write-back finishes
+                cached = pendingWrites.get(filename);
+            }
+            if (cached != null) {
+                return cached.file;
+            }
+        }
+        InMemoryFile file = FileHandler.readFromFile(filename);
+        if (file == null || budgetBytes <= 0) {
+            return file;
+        }
+        List<CachedFile> evicted;
+        synchronized (this) {
+            // another reader holding the same read lock may have loaded it first
+            CachedFile cached = entries.get(filename);
+            if (cached != null) {
+                return cached.file;
+            }
+            cached = new CachedFile(file);
+            entries.put(filename, cached);
+            residentBytes += cached.size;
+            evicted = evict(filename);
+        }
+        writeEvicted(evicted);
+        return file;
+    }
+
+    // returns the resident copy of a file without loading it on a miss
+    synchronized InMemoryFile getIfResident(String filename) {
+        CachedFile cached = entries.get(filename);
+        if (cached == null) {
+            cached = pendingWrites.get(filename);
+        }
+        return cached != null ? cached.file : null;
+    }
+
+    // records that a file returned by get has been modified by the caller, which holds its write lock
+    void written(InMemoryFile file) {
+        modified(file, -1);
+    }
+
+    // records an append by the caller; only content from previousLength onwards is new, so at most
+    // the appended bytes have to go to disk
+    void appended(InMemoryFile file, int previousLength) {
+        modified(file, previousLength);
+    }
+
+    private void modified(InMemoryFile file, int appendedFrom) {
+        boolean resident = false;
+        List<CachedFile> evicted = new ArrayList<>();
+        if (budgetBytes > 0) {
+            synchronized (this) {
+                CachedFile cached = entries.get(file.getFileName());
+                if (cached != null) {
+                    residentBytes -= cached.size;
+                    cached.size = estimateSize(file);
+                    residentBytes += cached.size;
+                    if (writeBack) {
+                        if (!cached.dirty) {
+                            cached.persistedLength = appendedFrom;
+                        } else if (appendedFrom < 0) {
+                            cached.persistedLength = -1;
+                        }
+                        cached.dirty = true;
+                    }
+                    resident = true;
+                    evicted = evict(file.getFileName());
+                }
+            }
+        }
+        // write-through, or a file too large to stay resident, goes straight to disk
+        try {
+            if ((!writeBack || !resident) && !persist(file, appendedFrom)) {
+                throw new IllegalStateException("Unable to write " + file.getFileName() + " to disk");
+            }
+        } finally {
+            writeEvicted(evicted);
+        }
+    }
+
+    // writes every dirty file back to disk, returning false if any of them could not be written
+    boolean flush() {
+        boolean flushed = true;
+        List<CachedFile> dirty = new ArrayList<>();
+        synchronized (this) {
+            for (CachedFile cached : entries.values()) {
+                if (cached.dirty) {
+                    dirty.add(cached);
+                }
+            }
+        }
+        for (CachedFile cached : dirty) {
+            Lock lock = lockFor.apply(cached.file.getFileName()).readLock();
+            lock.lock();
+            try {
+                if (cached.dirty) {
+                    if (persist(cached.file, cached.persistedLength)) {
+                        cached.dirty = false;
+                    } else {
+                        writeFailed(cached);
+                        flushed = false;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return flushed;
+    }
+
+    // drops least recently used files until the cache fits its budget again. files whose lock is
+    // busy are skipped, and the file just touched is only dropped when it alone exceeds the budget.
+    // dirty files are returned still locked so they can be written back outside the cache monitor.
+    private List<CachedFile> evict(String justUsed) {
+        List<CachedFile> dirtyEvicted = new ArrayList<>();
+        Iterator<Map.Entry<String, CachedFile>> it = entries.entrySet().iterator();
+        while (residentBytes > budgetBytes && it.hasNext()) {
+            Map.Entry<String, CachedFile> entry = it.next();
+            if (entry.getKey().equals(justUsed) && entries.size() > 1) {
+                continue;
+            }
+            Lock lock = lockFor.apply(entry.getKey()).readLock();
+            if (!lock.tryLock()) {
+                continue;
+            }
+            CachedFile cached = entry.getValue();
+            it.remove();
+            residentBytes -= cached.size;
+            if (cached.dirty) {
+                dirtyEvicted.add(cached);
+                pendingWrites.put(entry.getKey(), cached);
+            } else {
+                lock.unlock();
+            }
+        }
+        return dirtyEvicted;
+    }
+
+    private void writeEvicted(List<CachedFile> evicted) {
+        for (CachedFile cached : evicted) {
+            try {
+                boolean written = persist(cached.file, cached.persistedLength);
+                synchronized (this) {
+                    pendingWrites.remove(cached.file.getFileName());
+                    if (!written) {
+                        // keep the only up-to-date copy resident so a later flush can retry it
+                        writeFailed(cached);
+                        entries.putIfAbsent(cached.file.getFileName(), cached);
+                        residentBytes += cached.size;
+                    }
+                }
+            } finally {
+                lockFor.apply(cached.file.getFileName()).readLock().unlock();
+            }
+        }
+    }
+
+    // a failed write may have left part of the new bytes on disk, so the file stays dirty and the
+    // retry rewrites it whole rather than appending after whatever landed
+    private synchronized void writeFailed(CachedFile cached) {
+        cached.dirty = true;
+        cached.persistedLength = -1;
+    }
+
+    // the disk copy holds the file's first persistedLength bytes, or is stale when that is negative
+    private boolean persist(InMemoryFile file, int persistedLength) {
+        try {
+            if (durable) {
+                FileHandler.writeToFileDurably(file.getFileName(), file.getFileBytes(), file.getTimeLastModified());
+            } else if (persistedLength >= 0) {
+                byte[] appended = file.getContentRange(persistedLength, file.getContentLength());
+                FileHandler.appendToFile(file.getFileName(), appended, file.getTimeLastModified());
+            } else {
+                FileHandler.writeToFile(file.getFileName(), file.getFileBytes(), file.getTimeLastModified());
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Unable to write back " + file.getFileName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
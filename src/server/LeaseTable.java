@@ -0,0 +1,179 @@
+package src.server;
+
+import src.utils.Protocol;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// leases on the files clients cache. while a client holds a lease on a file it may use its cached
+// copy without asking the server, because the server tells it when the file changes. a lease is
+// granted or renewed by a conditional read and ends when it expires or the file changes, and the
+// table holds at most a limit of leases, refusing new ones while it is full. an invalidation is
+// sent again until the client acknowledges it or the lease it ended would have expired anyway
+class LeaseTable {
+    private static final long RESEND_MILLIS = 200;
+
+    private static final class Lease {
+        final long clientId;
+        volatile Listener listener;
+        volatile SocketAddress address;
+        volatile long expiresAt;
+
+        Lease(long clientId) {
+            this.clientId = clientId;
+        }
+    }
+
+    // an invalidation the holder has not acknowledged yet
+    private static final class Invalidation {
+        final Lease lease;
+        final byte[] message;
+
+        Invalidation(Lease lease, byte[] message) {
+            this.lease = lease;
+            this.message = message;
+        }
+    }
+
+    // by file, then by client ID. a file's map is only touched while computing its entry
+    private final ConcurrentHashMap<String, Map<Long, Lease>> leases = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Invalidation> unacknowledged = new ConcurrentHashMap<>(); // by invalidation ID
+    private final AtomicLong invalidationIds = new AtomicLong();
+    private final AtomicInteger count = new AtomicInteger();
+    private final long durationMillis;
+    private final int limit;
+    private final TimingWheel expiries;
+    private final ChunkedTransfer.Sender sender;
+
+    private final AtomicLong granted = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong resent = new AtomicLong();
+
+    LeaseTable(long durationMillis, int limit, TimingWheel expiries, ChunkedTransfer.Sender sender) {
+        this.durationMillis = durationMillis;
+        this.limit = limit;
+        this.expiries = expiries;
+        this.sender = sender;
+    }
+
+    // grants or renews the requesting client's lease on the file. called with the file's read lock
+    // held, so the file cannot change meanwhile. returns false if the table is full
+    boolean grant(String filename, Request request) {
+        long expiresAt = System.currentTimeMillis() + durationMillis;
+        Lease[] created = new Lease[1];
+        boolean[] leased = new boolean[1];
+        leases.compute(filename, (k, holders) -> {
+            Map<Long, Lease> held = holders != null ? holders : new HashMap<>();
+            Lease lease = held.get(request.clientId);
+            if (lease == null) {
+                if (count.incrementAndGet() > limit) {
+                    count.decrementAndGet();
+                    return holders;
+                }
+                lease = new Lease(request.clientId);
+                held.put(request.clientId, lease);
+                created[0] = lease;
+            }
+            lease.listener = request.listener;
+            lease.address = request.client;
+            lease.expiresAt = expiresAt;
+            leased[0] = true;
+            return held;
+        });
+        if (!leased[0]) {
+            refused.incrementAndGet();
+            return false;
+        }
+        granted.incrementAndGet();
+        if (created[0] != null) {
+            // renewals only move the expiry time, which the wheel entry checks when it falls due
+            Lease lease = created[0];
+            expiries.schedule(expiresAt, () -> expire(filename, lease));
+        }
+        return true;
+    }
+
+    // drops the lease if it has not been renewed since, and the file's entry along with its last lease
+    private void expire(String filename, Lease lease) {
+        long[] renewedUntil = new long[1];
+        leases.computeIfPresent(filename, (k, holders) -> {
+            if (holders.get(lease.clientId) != lease) {
+                return holders;
+            }
+            if (lease.expiresAt > System.currentTimeMillis()) {
+                renewedUntil[0] = lease.expiresAt;
+                return holders;
+            }
+            holders.remove(lease.clientId);
+            count.decrementAndGet();
+            return holders.isEmpty() ? null : holders;
+        });
+        if (renewedUntil[0] > 0) {
+            expiries.schedule(renewedUntil[0], () -> expire(filename, lease));
+        }
+    }
+
+    // ends every lease on the file and sends its holders the file's new version. called with the
+    // file's write lock held, so no lease on it is granted meanwhile
+    void revoke(String filename, long version) {
+        Map<Long, Lease> holders = leases.remove(filename);
+        if (holders == null) {
+            return;
+        }
+        count.addAndGet(-holders.size());
+        long now = System.currentTimeMillis();
+        for (Lease lease : holders.values()) {
+            if (lease.expiresAt <= now) {
+                continue; // the holder no longer trusts its copy
+            }
+            long id = invalidationIds.incrementAndGet();
+            Invalidation invalidation = new Invalidation(lease,
+                    Protocol.encodeInvalidation(lease.clientId, id, version, filename));
+            unacknowledged.put(id, invalidation);
+            invalidations.incrementAndGet();
+            send(invalidation);
+            expiries.schedule(now + RESEND_MILLIS, () -> resend(id, invalidation));
+        }
+    }
+
+    private void resend(long id, Invalidation invalidation) {
+        if (unacknowledged.get(id) != invalidation) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= invalidation.lease.expiresAt) {
+            unacknowledged.remove(id, invalidation);
+            return;
+        }
+        resent.incrementAndGet();
+        send(invalidation);
+        expiries.schedule(now + RESEND_MILLIS, () -> resend(id, invalidation));
+    }
+
+    void acknowledge(long clientId, long invalidationId) {
+        Invalidation invalidation = unacknowledged.get(invalidationId);
+        if (invalidation != null && invalidation.lease.clientId == clientId) {
+            unacknowledged.remove(invalidationId, invalidation);
+        }
+    }
+
+    private void send(Invalidation invalidation) {
+        try {
+            sender.send(invalidation.message, invalidation.lease.listener, invalidation.lease.address);
+        } catch (IOException e) {
+            System.err.println("Failed to send invalidation: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "leases=" + count.get() + "/" + limit + ", granted=" + granted.get() + ", refused=" + refused.get()
+                + ", invalidations=" + invalidations.get() + ", resent=" + resent.get() + ", unacknowledged="
+                + unacknowledged.size();
+    }
+}
@@ -0,0 +1,39 @@
+package src.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+// one bound channel with its own receive loop; with several listeners the channels share
+// the server port through SO_REUSEPORT and the kernel spreads clients across them
+class Listener {
+    final int id;
+    final DatagramChannel channel;
+    final AtomicLong packetsReceived = new AtomicLong();
+
+    Listener(int id, int port, ServerConfig config) throws IOException {
+        this.id = id;
+        this.channel = DatagramChannel.open();
+        if (config.listeners > 1) {
+            if (!channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                channel.close();
+                throw new IOException("SO_REUSEPORT is not supported on this platform");
+            }
+            channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        if (config.receiveBufferSize > 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, config.receiveBufferSize);
+        }
+        channel.bind(new InetSocketAddress(port));
+    }
+
+    int receiveBufferSize() {
+        try {
+            return channel.getOption(StandardSocketOptions.SO_RCVBUF);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
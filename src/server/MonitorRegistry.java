@@ -0,0 +1,177 @@
+package src.server;
+
+import src.utils.Protocol;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// monitor subscriptions, and the stage that sends them updates. a writer only queues its update
+// and returns, and a dedicated thread sends it to every subscriber. updates to a file published
+// within the coalescing window go out together, and deltas that insert into or next to the one
+// before them are merged into a single delta
+class MonitorRegistry {
+    // the updates to one file waiting to be sent
+    private static final class Pending {
+        final List<Protocol.Update> deltas = new ArrayList<>();
+        byte[] content; // the latest whole file, for subscribers using the original layout
+
+        // returns true if the delta was merged into the previous one
+        boolean add(Protocol.Update delta) {
+            Protocol.Update last = deltas.isEmpty() ? null : deltas.get(deltas.size() - 1);
+            if (last == null || delta.baseVersion != last.version || delta.offset < last.offset
+                    || delta.offset > last.offset + last.data.length) {
+                deltas.add(delta);
+                return false;
+            }
+            // inserting into the bytes the previous delta inserted is the same as that delta
+            // inserting more
+            int split = delta.offset - last.offset;
+            byte[] data = new byte[last.data.length + delta.data.length];
+            System.arraycopy(last.data, 0, data, 0, split);
+            System.arraycopy(delta.data, 0, data, split, delta.data.length);
+            System.arraycopy(last.data, split, data, split + delta.data.length, last.data.length - split);
+            byte operationCode = last.operationCode == delta.operationCode ? last.operationCode : Protocol.OP_INSERT;
+            deltas.set(deltas.size() - 1,
+                    Protocol.Update.delta(operationCode, last.baseVersion, delta.version, last.offset, data));
+            return true;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Set<ClientInfo>> subscriptions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService fanOut = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "monitor-fan-out");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long coalesceMillis;
+    private final TimingWheel expiries;
+    private final ChunkedTransfer.Sender framed; // for updates in the versioned layout; must not keep the message
+    private final ChunkedTransfer.Sender bare; // for whole files sent to subscribers using the original layout
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong notifications = new AtomicLong();
+
+    MonitorRegistry(long coalesceMillis, TimingWheel expiries, ChunkedTransfer.Sender framed,
+            ChunkedTransfer.Sender bare) {
+        this.coalesceMillis = coalesceMillis;
+        this.expiries = expiries;
+        this.framed = framed;
+        this.bare = bare;
+    }
+
+    // registers the subscription until its expiry time
+    void subscribe(String filename, ClientInfo client) {
+        subscriptions.compute(filename, (k, clients) -> {
+            Set<ClientInfo> subscribed = clients != null ? clients : ConcurrentHashMap.newKeySet();
+            subscribed.add(client);
+            return subscribed;
+        });
+        expiries.schedule(client.expiryTime, () -> unsubscribe(filename, client));
+    }
+
+    // drops an expired subscription, and the file's entry along with its last subscription
+    private void unsubscribe(String filename, ClientInfo client) {
+        subscriptions.computeIfPresent(filename, (k, clients) -> {
+            clients.remove(client);
+            return clients.isEmpty() ? null : clients;
+        });
+    }
+
+    // the live subscription made by the given monitor request, or null
+    ClientInfo find(String filename, long clientId, long sequence) {
+        for (ClientInfo client : subscriptions.getOrDefault(filename, Set.of())) {
+            if (client.clientId == clientId && client.sequence == sequence
+                    && System.currentTimeMillis() <= client.expiryTime) {
+                return client;
+            }
+        }
+        return null;
+    }
+
+    // queues a delta for the file's subscribers. called with the file's write lock held, so deltas
+    // are queued in version order. content supplies the whole file, and is only called if a
+    // subscriber uses the original layout
+    void publish(String filename, Protocol.Update delta, Supplier<byte[]> content) {
+        Set<ClientInfo> clients = subscriptions.get(filename);
+        if (clients == null) {
+            return;
+        }
+        byte[] whole = clients.stream().anyMatch(client -> client.version == Protocol.LEGACY_VERSION)
+                ? content.get()
+                : null;
+        boolean[] first = new boolean[1];
+        pending.compute(filename, (k, updates) -> {
+            if (updates == null) {
+                updates = new Pending();
+                first[0] = true;
+            }
+            if (updates.add(delta)) {
+                merged.incrementAndGet();
+            }
+            if (whole != null) {
+                updates.content = whole;
+            }
+            return updates;
+        });
+        published.incrementAndGet();
+        if (first[0]) {
+            fanOut.schedule(() -> send(filename), coalesceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // sends the file's queued updates. each delta is encoded once, and the message is readdressed
+    // in place for one subscriber after another, so nothing is copied per subscriber here
+    private void send(String filename) {
+        Pending updates = pending.remove(filename);
+        Set<ClientInfo> clients = subscriptions.get(filename);
+        if (updates == null || clients == null) {
+            return;
+        }
+        for (Protocol.Update delta : updates.deltas) {
+            byte[] message = Protocol.encodeReply(Protocol.OP_MONITOR, Protocol.FLAG_NOTIFICATION, Protocol.STATUS_OK,
+                    0, 0, Protocol.encodeUpdateBody(delta));
+            for (ClientInfo client : clients) {
+                if (client.version != Protocol.LEGACY_VERSION && isLive(client)) {
+                    Protocol.readdress(message, client.clientId, client.sequence);
+                    send(framed, message, client);
+                }
+            }
+        }
+        if (updates.content != null) {
+            for (ClientInfo client : clients) {
+                if (client.version == Protocol.LEGACY_VERSION && isLive(client)) {
+                    send(bare, updates.content, client);
+                }
+            }
+        }
+    }
+
+    // subscriptions that have expired but not been dropped yet are skipped
+    private static boolean isLive(ClientInfo client) {
+        return System.currentTimeMillis() <= client.expiryTime;
+    }
+
+    private void send(ChunkedTransfer.Sender sender, byte[] message, ClientInfo client) {
+        try {
+            sender.send(message, client.listener, client.address);
+            notifications.incrementAndGet();
+        } catch (IOException e) {
+            System.err.println("Failed to send update: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "files=" + subscriptions.size() + ", updates=" + published.get() + ", merged=" + merged.get()
+                + ", notifications=" + notifications.get();
+    }
+}
@@ -0,0 +1,92 @@
+package src.server;
+
+import src.utils.Marshaller;
+import src.utils.Protocol;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// what a handler sends back: a status code and the body, which is the payload on success and a
+// message otherwise. the server frames it in the version the request arrived in
+class Reply {
+    final byte status;
+    // the body or, if framed, the whole reply with the header still to be filled in
+    private final byte[] message;
+    private final boolean framed;
+    final int leaseSeconds; // the lease the reply grants on the file it read, 0 if none
+
+    Reply(byte status, byte[] body) {
+        this(status, body, false, 0);
+    }
+
+    private Reply(byte status, byte[] message, boolean framed, int leaseSeconds) {
+        this.status = status;
+        this.message = message;
+        this.framed = framed;
+        this.leaseSeconds = leaseSeconds;
+    }
+
+    // a buffer to write a body of the given length into at its position. room for the header is
+    // left in front, so the reply is framed without copying the body again
+    static ByteBuffer bodyBuffer(int bodyLength) {
+        return ByteBuffer.allocate(Protocol.HEADER_BYTES + bodyLength).position(Protocol.HEADER_BYTES);
+    }
+
+    static Reply ok(byte[] body) {
+        return new Reply(Protocol.STATUS_OK, body);
+    }
+
+    // a reply whose body was written into a buffer from bodyBuffer
+    static Reply ok(ByteBuffer bodyBuffer) {
+        return new Reply(Protocol.STATUS_OK, bodyBuffer.array(), true, 0);
+    }
+
+    static Reply ok(String message) {
+        return ok(Marshaller.marshall(message));
+    }
+
+    static Reply notModified() {
+        return new Reply(Protocol.STATUS_NOT_MODIFIED, new byte[0]);
+    }
+
+    static Reply error(byte status, String message) {
+        return new Reply(status, Marshaller.marshall(message));
+    }
+
+    // maps a failed operation to the closest status
+    static Reply failure(String message, Exception e) {
+        byte status;
+        if (e instanceof IndexOutOfBoundsException) {
+            status = Protocol.STATUS_BAD_OFFSET;
+        } else if (e instanceof IllegalArgumentException) {
+            status = Protocol.STATUS_BAD_REQUEST;
+        } else {
+            status = Protocol.STATUS_ERROR;
+        }
+        return error(status, message + ": " + e.getMessage());
+    }
+
+    Reply withLease(int seconds) {
+        return new Reply(status, message, framed, seconds);
+    }
+
+    byte[] body() {
+        return framed ? Arrays.copyOfRange(message, Protocol.HEADER_BYTES, message.length) : message;
+    }
+
+    // the reply in the version the request arrived in. a framed reply gets its header in place
+    byte[] encode(Request request) {
+        if (request.version == Protocol.LEGACY_VERSION) {
+            return body();
+        } else if (!framed) {
+            return Protocol.encodeReply(request.operationCode, (byte) 0, status, request.clientId, request.sequence,
+                    message);
+        }
+        Protocol.putHeader(ByteBuffer.wrap(message), request.operationCode, (byte) 0, status, request.clientId,
+                request.sequence);
+        return message;
+    }
+
+    boolean isOk() {
+        return status == Protocol.STATUS_OK;
+    }
+}
@@ -0,0 +1,106 @@
+package src.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// replies to idempotent requests, kept so that a duplicate can be answered without running the
+// request again. the cache holds at most a budget of reply bytes, evicting the least recently used
+// replies first, and drops replies once their TTL expires in the timing wheel. a miss is harmless:
+// the request is just run again. replies that must never be lost are pinned in the DedupTable instead
+class ReplyCache {
+    private static final class Key {
+        final long clientId;
+        final long sequence;
+
+        Key(long clientId, long sequence) {
+            this.clientId = clientId;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).clientId == clientId && ((Key) other).sequence == sequence;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(clientId) * 31 + Long.hashCode(sequence);
+        }
+    }
+
+    private static final class Entry {
+        final byte[] reply;
+        final long storedAt;
+        TimingWheel.Timeout expiry;
+
+        Entry(byte[] reply, long storedAt) {
+            this.reply = reply;
+            this.storedAt = storedAt;
+        }
+    }
+
+    private final long budget;
+    private final long ttlMillis;
+    private final TimingWheel expiries;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // access order
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    ReplyCache(long budget, long ttlMillis, TimingWheel expiries) {
+        this.budget = budget;
+        this.ttlMillis = ttlMillis;
+        this.expiries = expiries;
+    }
+
+    synchronized void put(long clientId, long sequence, byte[] reply) {
+        if (reply.length > budget) {
+            return;
+        }
+        Key key = new Key(clientId, sequence);
+        Entry entry = new Entry(reply, System.currentTimeMillis());
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.reply.length;
+            previous.expiry.cancel();
+        }
+        bytes += reply.length;
+        entry.expiry = expiries.schedule(entry.storedAt + ttlMillis, () -> expire(key, entry));
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > budget) {
+            Entry evicted = eldest.next();
+            bytes -= evicted.reply.length;
+            evicted.expiry.cancel();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    // the cached reply, or null if the request has to be run again
+    synchronized byte[] get(long clientId, long sequence) {
+        Key key = new Key(clientId, sequence);
+        Entry entry = entries.get(key);
+        if (entry == null || System.currentTimeMillis() - entry.storedAt > ttlMillis) {
+            // an expired reply that the wheel has not reached yet is left for it to drop
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.reply;
+    }
+
+    private synchronized void expire(Key key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            bytes -= entry.reply.length;
+            expirations++;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", expired=" + expirations
+                + ", replies=" + entries.size() + ", bytes=" + bytes + "/" + budget;
+    }
+}
@@ -0,0 +1,197 @@
+package src.server;
+
+import src.utils.Marshaller;
+import src.utils.Protocol;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// a received datagram and its decoded fields. a Request owns its receive buffer and is reused for
+// one datagram after another: decode() parses the header in place, and the content stays in the
+// buffer until a handler asks for it
+class Request {
+    final ByteBuffer buffer;
+    Listener listener; // the socket the datagram arrived on, which the reply is sent from
+    SocketAddress client;
+
+    byte version; // Protocol.LEGACY_VERSION for the original layout
+    byte operationCode;
+    byte flags;
+    long clientId; // with the sequence number, identifies the request for at-most-once dedup
+    long sequence;
+    int outstanding; // sequence numbers below this one that the client may still resend
+
+    String filename;
+    int offset;
+    int length; // the number of bytes to read, or the monitor interval in seconds; -1 if malformed
+    private int contentPosition;
+    private int contentLength;
+
+    Request(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    void decode() {
+        if (Protocol.isVersioned(buffer)) {
+            decodeVersioned();
+        } else {
+            decodeLegacy();
+        }
+    }
+
+    // fixed offsets, so only the name needs its length read first
+    private void decodeVersioned() {
+        version = buffer.get(Protocol.VERSION_OFFSET);
+        operationCode = buffer.get(Protocol.OPERATION_OFFSET);
+        flags = buffer.get(Protocol.FLAGS_OFFSET);
+        clientId = buffer.getLong(Protocol.CLIENT_ID_OFFSET);
+        sequence = buffer.getLong(Protocol.SEQUENCE_OFFSET);
+        outstanding = Short.toUnsignedInt(buffer.getShort(Protocol.OUTSTANDING_OFFSET));
+        if (version != Protocol.VERSION || operationCode == Protocol.OP_BATCH || operationCode == Protocol.OP_ACK
+                || operationCode == Protocol.OP_INVALIDATE) {
+            // the body layout of other versions is unknown, batches are split by the handler and
+            // acknowledgements are read where they are applied
+            return;
+        }
+        decodeBody(Protocol.HEADER_BYTES, buffer.limit());
+    }
+
+    // the body occupies [start, end) of the buffer, and its content runs to the end
+    private void decodeBody(int start, int end) {
+        if (end - start < Protocol.BODY_NAME) {
+            throw new IllegalArgumentException("Request body is too short");
+        }
+        offset = buffer.getInt(start + Protocol.BODY_OFFSET);
+        length = buffer.getInt(start + Protocol.BODY_LENGTH);
+        int nameLength = Short.toUnsignedInt(buffer.getShort(start + Protocol.BODY_NAME_LENGTH));
+        if (nameLength > end - start - Protocol.BODY_NAME) {
+            throw new IllegalArgumentException("Name length " + nameLength + " exceeds the request body");
+        }
+        buffer.limit(end).position(start + Protocol.BODY_NAME);
+        filename = Marshaller.unmarshallString(buffer, nameLength);
+        contentPosition = buffer.position();
+        contentLength = end - contentPosition;
+    }
+
+    // true if running the request twice has the same effect as running it once, so that a
+    // duplicate may run again instead of being answered from a kept reply. a batch is idempotent
+    // if all of its operations are
+    boolean isIdempotent() {
+        switch (operationCode) {
+            case Protocol.OP_READ:
+            case Protocol.OP_READ_IF_MODIFIED:
+            case Protocol.OP_GET_INFO:
+                return true;
+            case Protocol.OP_BATCH:
+                if (version == Protocol.LEGACY_VERSION) {
+                    return false;
+                }
+                try {
+                    return operations().stream().allMatch(Request::isIdempotent);
+                } catch (IllegalArgumentException e) {
+                    return false;
+                }
+            default:
+                return false;
+        }
+    }
+
+    // decodes the operations of a batch request, each as a Request that shares this one's buffer,
+    // client and identity. the batch itself is deduplicated, not its operations
+    List<Request> operations() {
+        ByteBuffer batch = buffer.duplicate().position(Protocol.HEADER_BYTES);
+        int count = Short.toUnsignedInt(batch.getShort());
+        List<Request> operations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte operationCode = batch.get();
+            int bodyLength = batch.getInt();
+            if (bodyLength < 0 || bodyLength > batch.remaining()) {
+                throw new IllegalArgumentException("Operation " + i + " exceeds the batch");
+            }
+            Request operation = new Request(buffer.duplicate());
+            operation.listener = listener;
+            operation.client = client;
+            operation.version = version;
+            operation.operationCode = operationCode;
+            operation.clientId = clientId;
+            operation.sequence = sequence;
+            operation.outstanding = outstanding;
+            operation.decodeBody(batch.position(), batch.position() + bodyLength);
+            operations.add(operation);
+            batch.position(batch.position() + bodyLength);
+        }
+        return operations;
+    }
+
+    // the original layout: request ID, operation code, filename, offset and content, with the
+    // strings and content prefixed by their length. reads send their length as text and monitor
+    // requests their interval in the offset field
+    private void decodeLegacy() {
+        version = Protocol.LEGACY_VERSION;
+        parseRequestId(Marshaller.unmarshallString(buffer));
+        operationCode = buffer.get();
+        filename = Marshaller.unmarshallString(buffer);
+        offset = Marshaller.unmarshallInteger(buffer);
+        contentLength = Marshaller.unmarshallInteger(buffer);
+        contentPosition = buffer.position();
+        if (contentLength < 0 || contentLength > buffer.remaining()) {
+            throw new IllegalArgumentException("Content length " + contentLength + " exceeds the datagram");
+        }
+        if (operationCode == Protocol.OP_READ) {
+            try {
+                length = Integer.parseInt(contentString().trim());
+            } catch (NumberFormatException e) {
+                length = -1;
+            }
+        } else if (operationCode == Protocol.OP_MONITOR) {
+            length = offset;
+        }
+    }
+
+    // original clients number their requests "<UUID>_<n>", which maps onto a client ID and a
+    // sequence number. they wait for each reply before sending the next request, so nothing below
+    // the current sequence number is outstanding. any other ID is hashed into a client ID of its own
+    private void parseRequestId(String requestId) {
+        outstanding = 0;
+        int separator = requestId.lastIndexOf('_');
+        if (separator > 0) {
+            try {
+                UUID uuid = UUID.fromString(requestId.substring(0, separator));
+                sequence = Long.parseLong(requestId.substring(separator + 1));
+                clientId = uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits();
+                return;
+            } catch (IllegalArgumentException e) {
+                // not a numbered UUID, so the whole ID is hashed below
+            }
+        }
+        long hash = 0xcbf29ce484222325L; // 64-bit FNV-1a
+        for (int i = 0; i < requestId.length(); i++) {
+            hash = (hash ^ requestId.charAt(i)) * 0x100000001b3L;
+        }
+        clientId = hash;
+        sequence = 0;
+    }
+
+    // the content as raw bytes, e.g. to insert into a file
+    byte[] content() {
+        byte[] content = new byte[contentLength];
+        buffer.get(contentPosition, content);
+        return content;
+    }
+
+    private String contentString() {
+        buffer.position(contentPosition);
+        return Marshaller.unmarshallString(buffer, contentLength);
+    }
+
+    // readies the request for the next datagram
+    void clear() {
+        buffer.clear();
+        listener = null;
+        client = null;
+        filename = null;
+        length = 0;
+    }
+}
@@ -0,0 +1,40 @@
+package src.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// fixed set of reusable requests, each with its own receive buffer, so that steady-state traffic
+// allocates neither a buffer nor a request object per packet
+class RequestPool {
+    private final ArrayBlockingQueue<Request> free;
+    private final int bufferSize;
+    private final boolean direct;
+
+    RequestPool(int capacity, int bufferSize, boolean direct) {
+        this.free = new ArrayBlockingQueue<>(capacity);
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        for (int i = 0; i < capacity; i++) {
+            free.offer(allocate());
+        }
+    }
+
+    // hands out a cleared request, allocating a new one only when the pool is empty
+    Request acquire() {
+        Request request = free.poll();
+        if (request == null) {
+            request = allocate();
+        }
+        request.clear();
+        return request;
+    }
+
+    // requests handed back while the pool is already full are left to the garbage collector
+    void release(Request request) {
+        free.offer(request);
+    }
+
+    private Request allocate() {
+        return new Request(direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize));
+    }
+}
@@ -2,139 +2,516 @@ package src.server;
 
 import src.utils.FileHandler;
 import src.utils.InMemoryFile;
+import src.utils.MappedFileReader;
 import src.utils.Marshaller;
+import src.utils.Protocol;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.net.InetAddress;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
-
-class ClientInfo {
-    InetAddress address;
-    int port;
-    long expiryTime;
-
-    ClientInfo(InetAddress address, int port, long expiryTime) {
-        this.address = address;
-        this.port = port;
-        this.expiryTime = expiryTime;
-    }
-}
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Server {
-    private DatagramSocket socket;
-    private boolean running;
+    private static final long EXPIRY_TICK_MILLIS = 100;
+    private static final int EXPIRY_BUCKETS = 512; // one turn of the wheel is about 51 seconds
+    private static final long STOP_TIMEOUT_MILLIS = 10000; // how long stop() waits for requests in flight
+
+    private int port;
+    private List<Listener> listeners;
+    private volatile boolean running;
+    private volatile boolean failed; // stopped because a mutation could not be logged
+    private final AtomicInteger inFlight = new AtomicInteger(); // requests received and not yet answered
     private String invocationSemantics; // "at-least-once" or "at-most-once"
+    private ServerConfig config;
 
-    private ConcurrentHashMap<String, List<ClientInfo>> monitorSubscriptions;
-    private ConcurrentHashMap<String, Long> requestHistory; // caching of the requests for "at-most-once"
-    private ConcurrentHashMap<String, byte[]> responseCache; // help keep track of handled request IDs
+    private MonitorRegistry monitors; // subscriptions, and the thread that sends them updates
+    private DedupTable dedup; // handled requests and their replies for "at-most-once"
+    private ReplyCache replyCache; // replies to idempotent requests for "at-most-once"
+    private LeaseTable leases; // null unless clients may hold leases on the files they cache
+    private ConcurrentHashMap<String, ReentrantReadWriteLock> fileLocks; // one read/write lock per file
     private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private TimingWheel expiries; // subscription, client and reply expiry, advanced by the scheduler
+    private ExecutorService workers; // null when requests are handled on the receiving thread
+    private RequestPool requests; // reusable requests, each with its own receive buffer
+    private BufferPool sendBuffers;
+    private FileCache fileCache; // resident files, shared by every handler
+    private MappedFileReader mappedReader; // null unless reads are served from file mappings
+    private WriteAheadLog wal; // null unless inserts and appends are logged before they are acknowledged
+    private ConcurrentHashMap<ChunkedTransfer.Key, ChunkedTransfer> transfers; // streams in progress, by client ID and transfer ID
+    private AtomicInteger transferIds = new AtomicInteger();
 
     public Server(int port, String invocationSemantics) throws Exception {
-        this.socket = new DatagramSocket(port);
+        this(port, invocationSemantics, new ServerConfig());
+    }
+
+    public Server(int port, String invocationSemantics, ServerConfig config) throws Exception {
+        this.port = port;
+        this.listeners = new ArrayList<>();
+        for (int i = 0; i < config.listeners; i++) {
+            listeners.add(new Listener(i, port, config));
+        }
         this.invocationSemantics = invocationSemantics;
-        this.monitorSubscriptions = new ConcurrentHashMap<>();
-        this.responseCache = new ConcurrentHashMap<>();
-        this.requestHistory = new ConcurrentHashMap<>();
+        this.config = config;
+        this.expiries = new TimingWheel(EXPIRY_TICK_MILLIS, EXPIRY_BUCKETS);
+        this.monitors = new MonitorRegistry(config.coalesceWindow, expiries,
+                // the registry reuses the message for its next subscriber, so a streamed update,
+                // whose transfer keeps the message until it is acknowledged, gets its own copy
+                (message, listener, client) -> deliver(message.length > config.chunkSize ? message.clone() : message,
+                        listener, client, this::sendDatagram),
+                this::sendDatagram);
+        this.dedup = new DedupTable(config.dedupWindow, TimeUnit.HOURS.toMillis(24), expiries);
+        this.replyCache = new ReplyCache(config.replyCacheBudget, TimeUnit.SECONDS.toMillis(config.replyTtl),
+                expiries);
+        if (config.leaseDuration > 0) {
+            this.leases = new LeaseTable(TimeUnit.SECONDS.toMillis(config.leaseDuration), config.leaseLimit, expiries,
+                    this::sendDatagram);
+        }
+        this.fileLocks = new ConcurrentHashMap<>();
+        this.transfers = new ConcurrentHashMap<>();
+        this.workers = createWorkers();
+        this.requests = new RequestPool(config.poolSize, config.bufferSize, config.directBuffers);
+        this.sendBuffers = new BufferPool(config.poolSize, config.bufferSize, config.directBuffers);
+
+        this.mappedReader = "mmap".equals(config.readMode) ? new MappedFileReader() : null;
+        if (config.walPath != null) {
+            // the log makes mutations durable, so files are only written back at checkpoints
+            this.fileCache = new FileCache(config.cacheBudget, true, true, this::lockFor);
+            this.wal = new WriteAheadLog(Paths.get(config.walPath), config.commitInterval, config.commitBatch,
+                    config.checkpointInterval);
+            replayWriteAheadLog();
+            wal.start(fileCache::flush);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::closeWriteAheadLog));
+        } else {
+            this.fileCache = new FileCache(config.cacheBudget, "write-back".equals(config.writePolicy), this::lockFor);
+        }
 
-        scheduleCacheCleanup();
+        scheduler.scheduleAtFixedRate(() -> expiries.advance(System.currentTimeMillis()), EXPIRY_TICK_MILLIS,
+                EXPIRY_TICK_MILLIS, TimeUnit.MILLISECONDS);
+        if (wal == null && "write-back".equals(config.writePolicy)) {
+            scheduler.scheduleAtFixedRate(fileCache::flush, config.flushInterval, config.flushInterval,
+                    TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(fileCache::flush));
+        }
+        if (config.statsInterval > 0) {
+            scheduler.scheduleAtFixedRate(this::reportListenerStats, config.statsInterval, config.statsInterval,
+                    TimeUnit.SECONDS);
+        }
     }
-    private void scheduleCacheCleanup() {
-        scheduler.scheduleAtFixedRate(() -> {
-            long expiryThreshold = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(24);
-            
-            // collect expired request IDs
-            List<String> expiredRequestIds = requestHistory.entrySet().stream()
-                    .filter(entry -> entry.getValue() < expiryThreshold)
-                    .map(Map.Entry::getKey)
-                    .collect(Collectors.toList());
 
-            // remove expired requests from requestHistory
-            expiredRequestIds.forEach(requestHistory::remove);
+    // re-applies logged mutations that had not been checkpointed. every record carries the file's
+    // modification time after the mutation, and files on disk carry theirs, so records already
+    // contained in a file are skipped and replaying the log twice is harmless
+    private void replayWriteAheadLog() throws IOException {
+        int replayed = 0;
+        for (WriteAheadLog.Record record : wal.readRecords()) {
+            Lock lock = lockFor(record.filename).writeLock();
+            lock.lock();
+            try {
+                InMemoryFile file = fileCache.get(record.filename);
+                if (file == null || file.getTimeLastModified() >= record.timeLastModified) {
+                    continue;
+                }
+                FileHandler.updateFileContent(file, record.offset, record.content, record.timeLastModified);
+                fileCache.written(file);
+                replayed++;
+            } catch (RuntimeException e) {
+                System.err.println("Skipping log record for " + record.filename + ": " + e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+        System.out.println("Replayed " + replayed + " write-ahead log record(s).");
+    }
 
-            // remove corresponding entries from responseCache
-            expiredRequestIds.forEach(responseCache::remove);
-            
-            System.out.println("Removed expired requestIDs");
-        }, 0, 1, TimeUnit.HOURS); // start now and repeat every hour
+    // waits until a mutation is in the log. it is already visible to readers, subscribers and
+    // lease holders by then, so a mutation that cannot be logged cannot be undone. it is reported
+    // as failed instead, the log refuses every later record and takes no more checkpoints, and the
+    // server stops once the requests in flight are answered. after a restart the log holds the
+    // mutations that were acknowledged
+    private void awaitCommit(CompletableFuture<Void> durable) throws IOException {
+        if (durable == null) {
+            return;
+        }
+        try {
+            durable.join();
+        } catch (CompletionException e) {
+            System.err.println("Write-ahead log commit failed, stopping: " + e.getCause().getMessage());
+            failed = true;
+            stop();
+            throw new IOException("the change could not be logged and the server is stopping", e.getCause());
+        }
+    }
+
+    // refuses a mutation up front once the log has failed, since it could not be made durable
+    private Reply refuseIfLogFailed() {
+        if (wal != null && wal.hasFailed()) {
+            return Reply.error(Protocol.STATUS_ERROR, "The write-ahead log has failed, so changes are refused.");
+        }
+        return null;
+    }
+
+    // stops taking requests, and once the ones in flight have been answered, closes the sockets so
+    // that listen() returns through its usual shutdown
+    void stop() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+        }
+        Thread stopper = new Thread(() -> {
+            long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MILLIS;
+            try {
+                while (inFlight.get() > 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (Listener listener : listeners) {
+                try {
+                    listener.channel.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to close listener " + listener.id + ": " + e.getMessage());
+                }
+            }
+        }, "server-stop");
+        stopper.start();
+    }
+
+    private void closeWriteAheadLog() {
+        try {
+            wal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ExecutorService createWorkers() {
+        switch (config.dispatchMode) {
+            case "fixed":
+                return Executors.newFixedThreadPool(config.workerThreads);
+            case "virtual":
+                try {
+                    // looked up reflectively so the server still builds and runs on JDKs without
+                    // virtual threads
+                    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                            .invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    System.out.println("Virtual threads unavailable, using a thread per request instead.");
+                    return Executors.newCachedThreadPool();
+                }
+            default:
+                return null;
+        }
+    }
+
+    private ReentrantReadWriteLock lockFor(String filename) {
+        return fileLocks.computeIfAbsent(filename, k -> new ReentrantReadWriteLock());
+    }
+
+    // prints how much each receive loop has drained next to the kernel's per-socket drop counters,
+    // which grow when a socket's receive queue overflows
+    private void reportListenerStats() {
+        StringBuilder report = new StringBuilder("Listener stats:");
+        for (Listener listener : listeners) {
+            report.append(" [listener ").append(listener.id)
+                    .append(": received=").append(listener.packetsReceived.get())
+                    .append(", rcvbuf=").append(listener.receiveBufferSize()).append("]");
+        }
+        UdpDropCounters.read(port).forEach((inode, stats) -> report.append(" [socket ").append(inode)
+                .append(": queued=").append(stats.receiveQueueBytes)
+                .append(" bytes, kernel drops=").append(stats.drops).append("]"));
+        System.out.println(report);
+        if ("at-most-once".equals(invocationSemantics)) {
+            System.out.println("Reply cache: " + replyCache + ", pinned bytes=" + dedup.pinnedBytes());
+        }
+        System.out.println("Pending expiries: " + expiries.pending() + ", monitor fan-out: " + monitors);
+        if (leases != null) {
+            System.out.println("Leases: " + leases);
+        }
     }
 
     public void listen() throws Exception {
 
         running = true;
-        System.out.println("Server is running with " + invocationSemantics + " semantics.");
+        System.out.println("Server is running with " + invocationSemantics + " semantics, "
+                + config.dispatchMode + " dispatch and " + listeners.size() + " listener(s).");
+
+        // every listener but the first gets its own receive thread, the first runs on the caller
+        List<Thread> receiveThreads = new ArrayList<>();
+        for (Listener listener : listeners.subList(1, listeners.size())) {
+            Thread thread = new Thread(() -> {
+                try {
+                    receiveLoop(listener);
+                } catch (IOException e) {
+                    System.err.println("Listener " + listener.id + " stopped: " + e.getMessage());
+                }
+            }, "listener-" + listener.id);
+            thread.start();
+            receiveThreads.add(thread);
+        }
+        receiveLoop(listeners.get(0));
+        for (Thread thread : receiveThreads) {
+            thread.join();
+        }
+
+        if (workers != null) {
+            workers.shutdown();
+        }
+        for (Listener listener : listeners) {
+            listener.channel.close();
+        }
+        if (wal != null) {
+            closeWriteAheadLog();
+        } else {
+            fileCache.flush();
+        }
+        scheduler.shutdownNow();
+    }
 
+    private void receiveLoop(Listener listener) throws IOException {
         while (running) {
-            byte[] buf = new byte[65535];
-            DatagramPacket packet = new DatagramPacket(buf, buf.length);
-            socket.receive(packet);
-
-            ByteBuffer buffer = ByteBuffer.wrap(packet.getData());
-            int requestIdLength = buffer.getInt(); // Read requestID length first
-            byte[] requestIdBytes = new byte[requestIdLength];
-            buffer.get(requestIdBytes);
-            String requestId = new String(requestIdBytes); // Convert bytes to string
-            byte operationCode = buffer.get(); // extracting the operation code
-
-            if ("at-most-once".equals(invocationSemantics) && requestHistory.containsKey(requestId)) {
-                byte[] cachedResponse = responseCache.get(requestId);
-                if (cachedResponse != null) {
-                    System.out.println("Sending cached response to " + packet.getAddress().getHostAddress() + ":"
-                            + packet.getPort());
-                    sendPacket(cachedResponse, packet.getAddress(), packet.getPort());
-                    continue; // we skip the operation processing for this duplicate request under
-                              // "at-most-once" semantics
+            Request request = requests.acquire();
+            request.listener = listener;
+            try {
+                request.client = listener.channel.receive(request.buffer);
+            } catch (ClosedChannelException e) {
+                requests.release(request);
+                if (running) {
+                    throw e;
+                }
+                return; // closed by stop()
+            }
+            if (!running) {
+                requests.release(request); // arrived after stop(), so it is left unanswered
+                return;
+            }
+            request.buffer.flip();
+            listener.packetsReceived.incrementAndGet();
+            inFlight.incrementAndGet();
+
+            if (workers == null) {
+                handleRequest(request);
+            } else {
+                workers.execute(() -> handleRequest(request));
+            }
+        }
+    }
+
+    // the request is decoded in place from its pooled buffer, and goes back to the pool once the
+    // response has been sent
+    private void handleRequest(Request request) {
+        try {
+            request.decode();
+            if (request.version == Protocol.VERSION && request.operationCode == Protocol.OP_ACK) {
+                // acknowledgements repeat the sequence number of the streamed reply, so they must
+                // not be taken for duplicates of its request
+                acknowledge(request);
+                return;
+            }
+            if (request.version == Protocol.VERSION && request.operationCode == Protocol.OP_RESYNC) {
+                // so do resync requests, which repeat the sequence number of the monitor request
+                resync(request);
+                return;
+            }
+            if (request.version == Protocol.VERSION && request.operationCode == Protocol.OP_INVALIDATE) {
+                // and acknowledgements of invalidations, which repeat the server's own sequence number
+                if (leases != null) {
+                    leases.acknowledge(request.clientId, request.sequence);
+                }
+                return;
+            }
+
+            if ("at-most-once".equals(invocationSemantics)) {
+                // recording the request is atomic, so two workers can never both treat the same
+                // request as new
+                DedupTable.Outcome outcome = dedup.begin(request.clientId, request.sequence, request.outstanding);
+                byte[] cachedResponse = null;
+                if (outcome == DedupTable.Outcome.DONE) {
+                    cachedResponse = dedup.reply(request.clientId, request.sequence);
+                } else if (outcome == DedupTable.Outcome.REPEATABLE) {
+                    cachedResponse = replyCache.get(request.clientId, request.sequence);
+                }
+                // an idempotent request whose reply was not kept simply runs again
+                if (outcome == DedupTable.Outcome.STALE) {
+                    rejectStale(request);
+                    return;
+                }
+                if (outcome != DedupTable.Outcome.NEW
+                        && (outcome != DedupTable.Outcome.REPEATABLE || cachedResponse != null)) {
+                    if (cachedResponse != null) {
+                        System.out.println("Sending cached response to " + request.client);
+                        if (request.version == Protocol.LEGACY_VERSION) {
+                            sendPacket(cachedResponse, request.listener, request.client);
+                        } else {
+                            deliver(cachedResponse, request.listener, request.client, this::sendPacket);
+                        }
+                    }
+                    // without a cached response the original is still being handled by another
+                    // worker, so the duplicate is dropped and the client will retry
+                    return;
                 }
             }
             // for the non duplicate requests under "at-most-once" or any request under
             // "at-least-once" we can proceed with operation processing.
-            // then record the request ID for "at-most-once" semantics to prevent duplicate
-            // processing.
-            if ("at-most-once".equals(invocationSemantics)) {
-                requestHistory.put(requestId, System.currentTimeMillis());
+
+            Reply reply;
+            if (request.version != Protocol.LEGACY_VERSION && request.version != Protocol.VERSION) {
+                // the reply header carries our version, so the client can fall back to it
+                reply = Reply.error(Protocol.STATUS_UNSUPPORTED_VERSION,
+                        "Protocol version " + request.version + " is not supported.");
+            } else {
+                reply = dispatch(request);
+            }
+            respond(request, reply);
+        } catch (Exception e) {
+            System.err.println("Failed to handle request: " + e.getMessage());
+        } finally {
+            requests.release(request);
+            inFlight.decrementAndGet();
+        }
+    }
+
+    // choose specific operation based on the operation code.
+    private Reply dispatch(Request request) {
+        switch (request.operationCode) {
+            case Protocol.OP_READ:
+                return handleReadOperation(request);
+            case Protocol.OP_INSERT:
+                return handleInsertOperation(request);
+            case Protocol.OP_MONITOR:
+                return handleMonitorOperation(request);
+            case Protocol.OP_GET_INFO: // idempotent
+                return handleGetFileInfo(request);
+            case Protocol.OP_APPEND: // non-idempotent
+                return handleAppendContent(request);
+            case Protocol.OP_READ_IF_MODIFIED:
+                if (request.version != Protocol.LEGACY_VERSION) {
+                    return handleConditionalRead(request);
+                }
+                return Reply.error(Protocol.STATUS_BAD_REQUEST, "Invalid operation code.");
+            case Protocol.OP_BATCH:
+                if (request.version != Protocol.LEGACY_VERSION) {
+                    return handleBatch(request);
+                }
+                // the original layout has no batches
+                return Reply.error(Protocol.STATUS_BAD_REQUEST, "Invalid operation code.");
+            default:
+                return Reply.error(Protocol.STATUS_BAD_REQUEST, "Invalid operation code.");
+        }
+    }
+
+    // runs the operations of a batch in order and answers them in one multi-part reply. a failed
+    // operation does not stop the ones after it, and each part carries its own status
+    private Reply handleBatch(Request request) {
+        try {
+            List<Protocol.Result> results = new ArrayList<>();
+            for (Request operation : request.operations()) {
+                Reply reply = operation.operationCode == Protocol.OP_BATCH
+                        ? Reply.error(Protocol.STATUS_BAD_REQUEST, "Batches cannot be nested.")
+                        : dispatch(operation);
+                results.add(new Protocol.Result(operation.operationCode, reply.status, reply.body()));
+            }
+            return Reply.ok(Protocol.encodeBatchReplyBody(results));
+        } catch (Exception e) {
+            return Reply.failure("Error during batch operation", e);
+        }
+    }
+
+    // frames the reply in the version the request arrived in, caches it and sends it. errors are
+    // not subject to the simulated packet loss
+    private void respond(Request request, Reply reply) {
+        byte[] responseBytes = reply.encode(request);
+        if (reply.leaseSeconds > 0 && request.version != Protocol.LEGACY_VERSION) {
+            Protocol.grantLease(responseBytes, reply.leaseSeconds);
+        }
+        cacheResponse(request, responseBytes);
+        ChunkedTransfer.Sender sender = reply.isOk() ? this::sendPacket : this::sendDatagram;
+        try {
+            if (request.version == Protocol.LEGACY_VERSION) {
+                sender.send(responseBytes, request.listener, request.client);
+            } else {
+                deliver(responseBytes, request.listener, request.client, sender);
             }
+        } catch (IOException e) {
+            System.err.println("Failed to send response: " + e.getMessage());
+        }
+    }
+
+    // tells the client that a request below its dedup window was refused and that its outcome is
+    // unknown: it may have run before, or never have arrived if the client had more requests in
+    // flight than the window holds. either way the client gets an answer rather than being left to
+    // time out. the answer is not cached, and legacy requests, which have no status to carry it,
+    // are dropped as before
+    private void rejectStale(Request request) {
+        if (request.version != Protocol.VERSION) {
+            return;
+        }
+        Reply reply = Reply.error(Protocol.STATUS_STALE,
+                "Request " + request.sequence + " is older than the dedup window, so whether it ran is unknown.");
+        try {
+            sendDatagram(reply.encode(request), request.listener, request.client);
+        } catch (IOException e) {
+            System.err.println("Failed to send response: " + e.getMessage());
+        }
+    }
 
-            // choose specific operation based on the operation code.
-            switch (operationCode) {
-                case 1: // read
-                    handleReadOperation(buffer, packet);
-                    break;
-                case 2: // insert
-                    handleInsertOperation(buffer, packet);
-                    break;
-                case 3: // monitor
-                    handleMonitorOperation(buffer, packet);
-                    break;
-                case 4: // get file info = idempotent
-                    handleGetFileInfo(buffer, packet);
-                    break;
-                case 5: // append file content = non-idempotent
-                    handleAppendContent(buffer, packet);
-                    break;
-                default:
-                    sendErrorResponse(packet, "Invalid operation code.");
-                    break;
+    // sends a framed message in one datagram if it fits in a chunk, and streams it otherwise
+    private void deliver(byte[] message, Listener listener, SocketAddress client, ChunkedTransfer.Sender sender)
+            throws IOException {
+        if (message.length <= config.chunkSize) {
+            sender.send(message, listener, client);
+            return;
+        }
+        ChunkedTransfer transfer = new ChunkedTransfer(transferIds.incrementAndGet(), message, config.chunkSize,
+                config.sendWindow, listener, client, sender);
+        ChunkedTransfer.Key key = new ChunkedTransfer.Key(ByteBuffer.wrap(message).getLong(Protocol.CLIENT_ID_OFFSET), transfer.id);
+        transfers.put(key, transfer);
+        transfer.timer = scheduler.scheduleWithFixedDelay(() -> {
+            if (transfer.onTimeout()) {
+                finishTransfer(key, transfer);
             }
+        }, ChunkedTransfer.RETRANSMIT_MILLIS, ChunkedTransfer.RETRANSMIT_MILLIS, TimeUnit.MILLISECONDS);
+        transfer.start();
+    }
+
+    // applies a client's acknowledgement of the chunks of a streamed message
+    private void acknowledge(Request request) {
+        ByteBuffer ack = request.buffer;
+        if (ack.limit() < Protocol.ACK_BYTES) {
+            return;
+        }
+        ChunkedTransfer.Key key = new ChunkedTransfer.Key(request.clientId, ack.getInt(Protocol.ACK_TRANSFER_OFFSET));
+        ChunkedTransfer transfer = transfers.get(key);
+        if (transfer != null && transfer.acknowledge(ack.getInt(Protocol.ACK_RECEIVED_OFFSET),
+                ack.getLong(Protocol.ACK_SELECTIVE_OFFSET))) {
+            finishTransfer(key, transfer);
         }
+    }
 
-        socket.close();
+    private void finishTransfer(ChunkedTransfer.Key key, ChunkedTransfer transfer) {
+        transfers.remove(key, transfer);
+        transfer.timer.cancel(false);
     }
 
-    private void sendPacket(byte[] data, InetAddress address, int port) throws IOException {
+    private void sendPacket(byte[] data, Listener listener, SocketAddress client) throws IOException {
         // Generate a random number between 0.0 and 1.0
         double randomValue = Math.random();
     
@@ -144,194 +521,288 @@ public class Server {
         }
     
         // Proceed to send the packet as normal if not dropped
-        DatagramPacket packet = new DatagramPacket(data, data.length, address, port);
-        socket.send(packet);
+        sendDatagram(data, listener, client);
     }
-    
 
-    private void handleReadOperation(ByteBuffer buffer, DatagramPacket requestPacket) {
+    // copies the payload into a pooled send buffer instead of wrapping it in a new packet
+    private void sendDatagram(byte[] data, Listener listener, SocketAddress client) throws IOException {
+        ByteBuffer buffer = sendBuffers.acquire();
         try {
-            int filenameLength = buffer.getInt();
-            byte[] filenameBytes = new byte[filenameLength];
-            buffer.get(filenameBytes);
-            String filename = new String(filenameBytes);
-            int offset = buffer.getInt();
-            int lengthofbytesToRead = buffer.getInt();
-            byte[] bytesToReadBytes = new byte[lengthofbytesToRead];
-            buffer.get(bytesToReadBytes);
-            String bytesToReadString = new String(bytesToReadBytes);
-            int bytesToRead = Integer.parseInt(bytesToReadString.trim());
-
-            InMemoryFile file = FileHandler.readFromFile(filename);
-            if (file != null) {
-                String content = FileHandler.getFileContent(file, offset, bytesToRead);
-                byte[] responseBytes = Marshaller.marshall(content);
-                cacheResponse(requestPacket, responseBytes);
-                sendPacket(responseBytes, requestPacket.getAddress(), requestPacket.getPort());
-            } else {
-                sendErrorResponse(requestPacket, "File does not exist.");
+            buffer.put(data).flip();
+            listener.channel.send(buffer, client);
+        } finally {
+            sendBuffers.release(buffer);
+        }
+    }
+
+    private Reply handleReadOperation(Request request) {
+        return read(request, false, 0);
+    }
+
+    // a read that names the version of the range the client has cached, so that an unchanged
+    // range is answered with a bodiless STATUS_NOT_MODIFIED instead of its bytes
+    private Reply handleConditionalRead(Request request) {
+        byte[] cachedVersion = request.content();
+        if (cachedVersion.length != Long.BYTES) {
+            return Reply.error(Protocol.STATUS_BAD_REQUEST, "Missing cached version.");
+        }
+        return read(request, true, ByteBuffer.wrap(cachedVersion).getLong());
+    }
+
+    // a conditional read's body starts with the file's version
+    private Reply read(Request request, boolean conditional, long cachedVersion) {
+        try {
+            String filename = request.filename;
+            int offset = request.offset;
+            int bytesToRead = request.length;
+            if (bytesToRead < 0) {
+                return Reply.error(Protocol.STATUS_BAD_REQUEST, "Invalid number of bytes to read.");
             }
+
+            ByteBuffer body = null;
+            long version = -1;
+            int leaseSeconds = 0;
+            Lock lock = lockFor(filename).readLock();
+            lock.lock();
+            try {
+                // in mmap mode only files already resident (and so possibly newer than the disk copy)
+                // are served from the cache, everything else straight from the file mapping
+                InMemoryFile file = mappedReader != null ? fileCache.getIfResident(filename) : fileCache.get(filename);
+                if (file != null) {
+                    version = file.getTimeLastModified();
+                    leaseSeconds = grantLease(request, conditional);
+                    if (conditional && version == cachedVersion) {
+                        return Reply.notModified().withLease(leaseSeconds);
+                    }
+                    int length = FileHandler.getRangeLength(file, offset, bytesToRead);
+                    body = readBody(conditional, version, length);
+                    if (length > 0) {
+                        file.getContentRange(offset, offset + length, body);
+                    }
+                } else if (mappedReader != null) {
+                    if (conditional) {
+                        version = mappedReader.lastModified(filename);
+                        if (version >= 0) {
+                            leaseSeconds = grantLease(request, true);
+                        }
+                        if (mappedReader.isCurrent(filename, cachedVersion)) {
+                            return Reply.notModified().withLease(leaseSeconds);
+                        }
+                    }
+                    // the range is a view of the mapping, copied into the reply while the lock
+                    // keeps the file from being rewritten under it
+                    ByteBuffer range = mappedReader.read(filename, offset, bytesToRead);
+                    if (range != null) {
+                        body = readBody(conditional, version, range.remaining()).put(range);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (body == null) {
+                return Reply.error(Protocol.STATUS_NOT_FOUND, "File does not exist.");
+            }
+            return Reply.ok(body).withLease(leaseSeconds);
         } catch (Exception e) {
-            sendErrorResponse(requestPacket, "Error during read operation: " + e.getMessage());
+            return Reply.failure("Error during read operation", e);
         }
     }
 
-    private void handleInsertOperation(ByteBuffer buffer, DatagramPacket requestPacket) {
+    // a reply buffer for length bytes of content, positioned after the version a conditional read
+    // starts with
+    private static ByteBuffer readBody(boolean conditional, long version, int length) {
+        if (!conditional) {
+            return Reply.bodyBuffer(length);
+        }
+        ByteBuffer body = Reply.bodyBuffer(Long.BYTES + length);
+        Marshaller.marshall(version, body);
+        return body;
+    }
+
+    // the seconds of the lease granted to a conditional read that asks for one, or 0. called with
+    // the file's read lock held, so the lease starts at the version being read
+    private int grantLease(Request request, boolean conditional) {
+        if (!conditional || leases == null || (request.flags & Protocol.FLAG_LEASE) == 0) {
+            return 0;
+        }
+        return leases.grant(request.filename, request) ? config.leaseDuration : 0;
+    }
+
+    private Reply handleInsertOperation(Request request) {
         try {
-            int filenameLength = buffer.getInt();
-            byte[] filenameBytes = new byte[filenameLength];
-            buffer.get(filenameBytes);
-            String filename = new String(filenameBytes);
-
-            int offset = buffer.getInt();
-            int lengthofbytesToRead = buffer.getInt();
-            byte[] contentToInsert_bytes = new byte[lengthofbytesToRead];
-            buffer.get(contentToInsert_bytes);
-            String contentToInsert = new String(contentToInsert_bytes);
-
-            InMemoryFile file = FileHandler.readFromFile(filename);
-            if (file != null) {
-                FileHandler.updateFileContent(file, offset, contentToInsert);
-                byte[] updatedFileData = Marshaller.marshall(file.getFileContent());
-                FileHandler.writeToFile(filename, updatedFileData);
-                notifyClientsOfUpdate(filename, file.getFileContent());
-
-                byte[] responseBytes = "Success".getBytes();
-                cacheResponse(requestPacket, responseBytes);
-                sendPacket(responseBytes, requestPacket.getAddress(), requestPacket.getPort());
-            } else {
-                sendErrorResponse(requestPacket, "File does not exist.");
+            String filename = request.filename;
+            int offset = request.offset;
+            byte[] contentToInsert = request.content();
+            Reply refused = refuseIfLogFailed();
+            if (refused != null) {
+                return refused;
+            }
+
+            boolean updated = false;
+            CompletableFuture<Void> durable = null;
+            Lock lock = lockFor(filename).writeLock();
+            lock.lock();
+            try {
+                InMemoryFile file = fileCache.get(filename);
+                if (file != null) {
+                    long baseVersion = file.getTimeLastModified();
+                    FileHandler.updateFileContent(file, offset, contentToInsert);
+                    fileCache.written(file);
+                    if (wal != null) {
+                        durable = wal.append(Protocol.OP_INSERT, filename, offset, contentToInsert,
+                                file.getTimeLastModified());
+                    }
+                    monitors.publish(filename, Protocol.Update.delta(Protocol.OP_INSERT, baseVersion,
+                            file.getTimeLastModified(), offset, contentToInsert), file::getFileBytes);
+                    if (leases != null) {
+                        leases.revoke(filename, file.getTimeLastModified());
+                    }
+                    updated = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            // wait for the group commit outside the lock so other writers can join the same batch
+            awaitCommit(durable);
+
+            if (!updated) {
+                return Reply.error(Protocol.STATUS_NOT_FOUND, "File does not exist.");
             }
+            return Reply.ok("Success");
         } catch (Exception e) {
-            sendErrorResponse(requestPacket, "Error during insert operation: " + e.getMessage());
+            return Reply.failure("Error during insert operation", e);
         }
     }
 
-    private void handleMonitorOperation(ByteBuffer buffer, DatagramPacket packet) {
-        int filenameLength = buffer.getInt();
-        byte[] filenameBytes = new byte[filenameLength];
-        buffer.get(filenameBytes);
-        String filename = new String(filenameBytes);
-        int monitorInterval = buffer.getInt();
+    private Reply handleMonitorOperation(Request request) {
+        String filename = request.filename;
+        int monitorInterval = request.length;
 
         long expiryTime = System.currentTimeMillis() + (monitorInterval * 1000L);
-        ClientInfo clientInfo = new ClientInfo(packet.getAddress(), packet.getPort(), expiryTime);
-        monitorSubscriptions.computeIfAbsent(filename, k -> new ArrayList<>()).add(clientInfo);
-
-        String message = "Monitoring registration successful";
-        byte[] responseBytes = Marshaller.marshall(message);
-        try {
-            sendPacket(responseBytes, packet.getAddress(), packet.getPort());
-            cacheResponse(packet, responseBytes);
-        } catch (IOException e) {
-            System.err.println("Error sending packet: " + e.getMessage());
+        ClientInfo clientInfo = new ClientInfo(request, expiryTime);
+        monitors.subscribe(filename, clientInfo);
+        if (clientInfo.version != Protocol.LEGACY_VERSION) {
+            // later updates are deltas, so the subscriber starts from a snapshot
+            sendSnapshot(filename, clientInfo);
         }
 
+        return Reply.ok("Monitoring registration successful");
     }
 
-    private void notifyClientsOfUpdate(String filename, String fileContent) {
-        List<ClientInfo> clients = monitorSubscriptions.getOrDefault(filename, new ArrayList<>());
-        for (ClientInfo client : clients) {
-            if (System.currentTimeMillis() > client.expiryTime) {
-                // skip for the expired subscriptions
-                continue;
-            }
-            try {
-                byte[] contentBytes = Marshaller.marshall(fileContent);
-                DatagramPacket updatePacket = new DatagramPacket(contentBytes, contentBytes.length, client.address,
-                        client.port);
-                socket.send(updatePacket);
-            } catch (IOException e) {
-                System.err.println("Failed to send update: " + e.getMessage());
+    // answers a subscriber that missed an update with a snapshot of the file
+    private void resync(Request request) {
+        ClientInfo client = monitors.find(request.filename, request.clientId, request.sequence);
+        if (client != null) {
+            sendSnapshot(request.filename, client);
+        }
+    }
+
+    private void sendSnapshot(String filename, ClientInfo client) {
+        Lock lock = lockFor(filename).readLock();
+        lock.lock();
+        try {
+            InMemoryFile file = fileCache.get(filename);
+            if (file != null) {
+                // sent under the lock, so deltas to later versions are queued after it. the
+                // subscriber ignores queued deltas it already has, and resyncs if one was merged
+                // across the snapshot's version
+                byte[] message = Protocol.encodeReply(Protocol.OP_MONITOR, Protocol.FLAG_NOTIFICATION,
+                        Protocol.STATUS_OK, client.clientId, client.sequence, Protocol.encodeUpdateBody(
+                                Protocol.Update.snapshot(file.getTimeLastModified(), file.getFileBytes())));
+                deliver(message, client.listener, client.address, this::sendDatagram);
             }
+        } catch (IOException e) {
+            System.err.println("Failed to send snapshot: " + e.getMessage());
+        } finally {
+            lock.unlock();
         }
-        // we remove expired subscriptions
-        clients.removeIf(client -> System.currentTimeMillis() > client.expiryTime);
     }
 
-    private void handleGetFileInfo(ByteBuffer buffer, DatagramPacket packet) {
+    private Reply handleGetFileInfo(Request request) {
         try {
-            int filenameLength = buffer.getInt();
-            byte[] filenameBytes = new byte[filenameLength];
-            buffer.get(filenameBytes);
-            String filename = new String(filenameBytes);
+            String filename = request.filename;
 
-            InMemoryFile file = FileHandler.readFromFile(filename);
-            if (file != null) {
-                String fileInfo = "Name: " + file.getFileName() +
-                        ", Size: " + file.getFileContent().length() +
-                        " bytes, Last Modified: " + file.getTimeLastModified();
-                byte[] responseBytes = Marshaller.marshall(fileInfo);
-                sendPacket(responseBytes, packet.getAddress(), packet.getPort());
-                cacheResponse(packet, responseBytes);
-            } else {
-                sendErrorResponse(packet, "File does not exist.");
+            // the resident file is shared with writers, so its fields are only read under the lock
+            String fileInfo = null;
+            Lock lock = lockFor(filename).readLock();
+            lock.lock();
+            try {
+                InMemoryFile file = fileCache.get(filename);
+                if (file != null) {
+                    fileInfo = "Name: " + file.getFileName() +
+                            ", Size: " + file.getContentLength() +
+                            " bytes, Last Modified: " + file.getTimeLastModified();
+                }
+            } finally {
+                lock.unlock();
             }
+
+            if (fileInfo == null) {
+                return Reply.error(Protocol.STATUS_NOT_FOUND, "File does not exist.");
+            }
+            return Reply.ok(fileInfo);
         } catch (Exception e) {
-            sendErrorResponse(packet, "Error retrieving file info: " + e.getMessage());
+            return Reply.failure("Error retrieving file info", e);
         }
     }
 
-    private void handleAppendContent(ByteBuffer buffer, DatagramPacket packet) {
+    private Reply handleAppendContent(Request request) {
         try {
-            int filenameLength = buffer.getInt();
-            byte[] filenameBytes = new byte[filenameLength];
-            buffer.get(filenameBytes);
-            String filename = new String(filenameBytes);
-
-            buffer.getInt(); // just to ignore the extra default "offset" sent by client
-            int lengthofbytesToRead = buffer.getInt();
-            byte[] contentToAppend_bytes = new byte[lengthofbytesToRead];
-            buffer.get(contentToAppend_bytes);
-            String contentToAppend = new String(contentToAppend_bytes);
-
-            InMemoryFile file = FileHandler.readFromFile(filename);
-            if (file != null) {
-                int offset = file.getFileContent().length();
-                FileHandler.updateFileContent(file, offset, contentToAppend);
-                byte[] updatedFileData = Marshaller.marshall(file.getFileContent());
-                FileHandler.writeToFile(filename, updatedFileData);
-                notifyClientsOfUpdate(filename, file.getFileContent());
-                String message = "Content appended successfully";
-                byte[] responseBytes = Marshaller.marshall(message);
-                sendPacket(responseBytes, packet.getAddress(), packet.getPort());
-                cacheResponse(packet, responseBytes);
-            } else {
-                sendErrorResponse(packet, "File does not exist.");
+            String filename = request.filename; // the offset sent by the client is ignored
+            byte[] contentToAppend = request.content();
+            Reply refused = refuseIfLogFailed();
+            if (refused != null) {
+                return refused;
+            }
+
+            boolean appended = false;
+            CompletableFuture<Void> durable = null;
+            Lock lock = lockFor(filename).writeLock();
+            lock.lock();
+            try {
+                InMemoryFile file = fileCache.get(filename);
+                if (file != null) {
+                    int offset = file.getContentLength();
+                    long baseVersion = file.getTimeLastModified();
+                    FileHandler.updateFileContent(file, offset, contentToAppend);
+                    fileCache.appended(file, offset);
+                    if (wal != null) {
+                        durable = wal.append(Protocol.OP_APPEND, filename, offset, contentToAppend,
+                                file.getTimeLastModified());
+                    }
+                    monitors.publish(filename, Protocol.Update.delta(Protocol.OP_APPEND, baseVersion,
+                            file.getTimeLastModified(), offset, contentToAppend), file::getFileBytes);
+                    if (leases != null) {
+                        leases.revoke(filename, file.getTimeLastModified());
+                    }
+                    appended = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            awaitCommit(durable);
+
+            if (!appended) {
+                return Reply.error(Protocol.STATUS_NOT_FOUND, "File does not exist.");
             }
+            return Reply.ok("Content appended successfully");
         } catch (Exception e) {
-            sendErrorResponse(packet, "Error appending content: " + e.getMessage());
+            return Reply.failure("Error appending content", e);
         }
     }
 
-    // cache the response for a given request
-    private void cacheResponse(DatagramPacket requestPacket, byte[] responseBytes) {
+    // cache the response for a given request. replies to idempotent requests go to the reply
+    // cache, which may evict them, while every other reply is pinned in the dedup window
+    private void cacheResponse(Request request, byte[] responseBytes) {
         if ("at-least-once".equals(invocationSemantics)) {
             return;
         }
-        ByteBuffer buffer = ByteBuffer.wrap(requestPacket.getData());
-
-        // Extract the length of the requestId
-        int requestIdLength = buffer.getInt();
-
-        // Extract the requestId bytes based on the length and convert to String
-        byte[] requestIdBytes = new byte[requestIdLength];
-        buffer.get(requestIdBytes);
-        String requestId = new String(requestIdBytes);
-
-        // Use the string requestId to cache the response
-        responseCache.put(requestId, responseBytes); // Use String requestId as the key
-    }
-
-    private void sendErrorResponse(DatagramPacket packet, String errorMessage) {
-        try {
-            byte[] errorResponse = errorMessage.getBytes();
-            DatagramPacket responsePacket = new DatagramPacket(errorResponse, errorResponse.length, packet.getAddress(),
-                    packet.getPort());
-            socket.send(responsePacket);
-            cacheResponse(packet, errorResponse);
-        } catch (IOException e) {
-            System.err.println("Failed to send error response: " + e.getMessage());
+        if (request.isIdempotent()) {
+            dedup.complete(request.clientId, request.sequence, null);
+            replyCache.put(request.clientId, request.sequence, responseBytes);
+        } else {
+            dedup.complete(request.clientId, request.sequence, responseBytes);
         }
     }
 
@@ -366,24 +837,43 @@ public class Server {
     }
 
     public static void main(String[] args) {
-        if (args.length != 2) {
-            System.err.println("Usage: java Server <port number> <invocation semantics>");
+        if (args.length < 2) {
+            System.err.println("Usage: java Server <port number> <invocation semantics> [--dispatch=inline|fixed|virtual]"
+                    + " [--workers=<threads>] [--buffers=<count>] [--direct-buffers=true|false]"
+                    + " [--listeners=<sockets>] [--receive-buffer=<bytes>] [--stats-interval=<seconds>]"
+                    + " [--cache-budget=<bytes>] [--write-policy=write-through|write-back] [--flush-interval=<seconds>]"
+                    + " [--read-mode=cache|mmap] [--wal=<log file>] [--commit-interval=<ms>] [--commit-batch=<records>]"
+                    + " [--checkpoint-interval=<seconds>] [--chunk-size=<bytes>] [--send-window=<chunks>]"
+                    + " [--dedup-window=<requests>] [--reply-cache-budget=<bytes>] [--reply-ttl=<seconds>]"
+                    + " [--coalesce-window=<ms>] [--lease-duration=<seconds>] [--lease-limit=<leases>]");
             System.exit(1);
         }
         int port = Integer.parseInt(args[0]);
         String semantics = args[1]; // "at-least-once" or "at-most-once"
+        ServerConfig config = ServerConfig.parse(args, 2);
 
         // File names to create
         String[] fileNames = { "file1", "file2", "file3" };
-        deleteInitialFiles(fileNames);
+        // with a write-ahead log the files outlive the server, so they are only seeded the first time
+        boolean seedFiles = config.walPath == null || !Files.exists(Paths.get(fileNames[0]));
+        if (config.walPath == null) {
+            deleteInitialFiles(fileNames);
+        }
         createInitialFiles(fileNames);
-        FileHandler.writeToFile("file1", Marshaller.marshall("Hello World"));
-        FileHandler.writeToFile("file2", Marshaller.marshall("Distributed systems"));
 
         try {
-            Server server = new Server(port, semantics);
+            if (seedFiles) {
+                FileHandler.writeToFile("file1", Marshaller.marshall("Hello World"));
+                FileHandler.writeToFile("file2", Marshaller.marshall("Distributed systems"));
+            }
+            Server server = new Server(port, semantics, config);
             server.listen();
-            deleteInitialFiles(fileNames);
+            if (server.failed) {
+                System.exit(1);
+            }
+            if (config.walPath == null) {
+                deleteInitialFiles(fileNames);
+            }
         } catch (Exception e) {
             System.err.println("Server failed to start: " + e.getMessage());
             e.printStackTrace();
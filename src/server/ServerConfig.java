@@ -0,0 +1,172 @@
+package src.server;
+
+import src.utils.Protocol;
+
+// optional server settings, given on the command line as --name=value after the
+// port number and invocation semantics
+class ServerConfig {
+    String dispatchMode = "inline"; // "inline", "fixed" or "virtual"
+    int workerThreads = Runtime.getRuntime().availableProcessors();
+    int poolSize = 64; // receive and send buffers kept for reuse
+    int bufferSize = 65535;
+    boolean directBuffers = false;
+    int listeners = 1; // sockets bound to the port with SO_REUSEPORT, each with its own receive loop
+    int receiveBufferSize = 0; // SO_RCVBUF in bytes, 0 keeps the OS default
+    int statsInterval = 0; // seconds between listener stats reports, 0 disables them
+    long cacheBudget = 64L * 1024 * 1024; // bytes of resident files, 0 disables the file cache
+    String writePolicy = "write-through"; // "write-through" or "write-back"
+    int flushInterval = 5; // seconds between write-backs of dirty files
+    String readMode = "cache"; // "cache" loads files into the file cache, "mmap" reads ranges from a mapping
+    String walPath = null; // write-ahead log file, null disables the log
+    int commitInterval = 2; // milliseconds a group commit waits for more records
+    int commitBatch = 64; // records after which a group commit is written without waiting
+    int checkpointInterval = 30; // seconds between write-ahead log checkpoints
+    int chunkSize = 8192; // replies and updates larger than this many bytes are streamed in chunks
+    int sendWindow = 32; // chunks of a streamed message in flight at once
+    int dedupWindow = 64; // latest requests per client remembered for at-most-once
+    long replyCacheBudget = 16L * 1024 * 1024; // bytes of replies to idempotent requests, 0 disables the reply cache
+    int replyTtl = 60; // seconds a reply to an idempotent request is kept at most
+    int coalesceWindow = 10; // milliseconds monitor updates to a file are gathered before they are sent
+    int leaseDuration = 0; // seconds of a lease on a client's cached file, 0 grants no leases
+    int leaseLimit = 10000; // leases held at once, beyond which no more are granted
+
+    static ServerConfig parse(String[] args, int from) {
+        ServerConfig config = new ServerConfig();
+        for (int i = from; i < args.length; i++) {
+            String arg = args[i];
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Invalid option: " + arg);
+            }
+            config.set(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        return config;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "dispatch":
+                if (!value.equals("inline") && !value.equals("fixed") && !value.equals("virtual")) {
+                    throw new IllegalArgumentException("Unknown dispatch mode: " + value);
+                }
+                dispatchMode = value;
+                break;
+            case "workers":
+                workerThreads = Integer.parseInt(value);
+                if (workerThreads < 1) {
+                    throw new IllegalArgumentException("Worker count must be positive");
+                }
+                break;
+            case "buffers":
+                poolSize = Integer.parseInt(value);
+                if (poolSize < 1) {
+                    throw new IllegalArgumentException("Buffer count must be positive");
+                }
+                break;
+            case "direct-buffers":
+                directBuffers = Boolean.parseBoolean(value);
+                break;
+            case "listeners":
+                listeners = Integer.parseInt(value);
+                if (listeners < 1) {
+                    throw new IllegalArgumentException("Listener count must be positive");
+                }
+                break;
+            case "receive-buffer":
+                receiveBufferSize = Integer.parseInt(value);
+                break;
+            case "stats-interval":
+                statsInterval = Integer.parseInt(value);
+                break;
+            case "cache-budget":
+                cacheBudget = Long.parseLong(value);
+                break;
+            case "write-policy":
+                if (!value.equals("write-through") && !value.equals("write-back")) {
+                    throw new IllegalArgumentException("Unknown write policy: " + value);
+                }
+                writePolicy = value;
+                break;
+            case "flush-interval":
+                flushInterval = Integer.parseInt(value);
+                if (flushInterval < 1) {
+                    throw new IllegalArgumentException("Flush interval must be positive");
+                }
+                break;
+            case "read-mode":
+                if (!value.equals("cache") && !value.equals("mmap")) {
+                    throw new IllegalArgumentException("Unknown read mode: " + value);
+                }
+                readMode = value;
+                break;
+            case "wal":
+                walPath = value;
+                break;
+            case "commit-interval":
+                commitInterval = Integer.parseInt(value);
+                break;
+            case "commit-batch":
+                commitBatch = Integer.parseInt(value);
+                if (commitBatch < 1) {
+                    throw new IllegalArgumentException("Commit batch size must be positive");
+                }
+                break;
+            case "checkpoint-interval":
+                checkpointInterval = Integer.parseInt(value);
+                break;
+            case "chunk-size":
+                chunkSize = Integer.parseInt(value);
+                if (chunkSize < 1 || chunkSize > Protocol.MAX_DATAGRAM - Protocol.CHUNK_DATA_OFFSET) {
+                    throw new IllegalArgumentException("Chunk size must be between 1 and "
+                            + (Protocol.MAX_DATAGRAM - Protocol.CHUNK_DATA_OFFSET) + " bytes");
+                }
+                break;
+            case "send-window":
+                sendWindow = Integer.parseInt(value);
+                // every chunk in flight past the first missing one must fit in the selective ack
+                if (sendWindow < 1 || sendWindow > Protocol.SELECTIVE_ACK_CHUNKS + 1) {
+                    throw new IllegalArgumentException("Send window must be between 1 and "
+                            + (Protocol.SELECTIVE_ACK_CHUNKS + 1) + " chunks");
+                }
+                break;
+            case "dedup-window":
+                dedupWindow = Integer.parseInt(value);
+                if (dedupWindow < 1) {
+                    throw new IllegalArgumentException("Dedup window must be positive");
+                }
+                break;
+            case "reply-cache-budget":
+                replyCacheBudget = Long.parseLong(value);
+                if (replyCacheBudget < 0) {
+                    throw new IllegalArgumentException("Reply cache budget must not be negative");
+                }
+                break;
+            case "reply-ttl":
+                replyTtl = Integer.parseInt(value);
+                if (replyTtl < 1) {
+                    throw new IllegalArgumentException("Reply TTL must be positive");
+                }
+                break;
+            case "coalesce-window":
+                coalesceWindow = Integer.parseInt(value);
+                if (coalesceWindow < 0) {
+                    throw new IllegalArgumentException("Coalesce window must not be negative");
+                }
+                break;
+            case "lease-duration":
+                leaseDuration = Integer.parseInt(value);
+                if (leaseDuration < 0 || leaseDuration > 0xFFFF) {
+                    throw new IllegalArgumentException("Lease duration must be between 0 and 65535 seconds");
+                }
+                break;
+            case "lease-limit":
+                leaseLimit = Integer.parseInt(value);
+                if (leaseLimit < 1) {
+                    throw new IllegalArgumentException("Lease limit must be positive");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+    }
+}
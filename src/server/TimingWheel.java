@@ -0,0 +1,110 @@
+package src.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// a hashed timing wheel for the server's expiries. time is cut into ticks, and a deadline goes in
+// the bucket of its tick modulo the number of buckets, counting the full turns of the wheel still
+// to wait. scheduling and cancelling are constant time, and each tick only visits one bucket, so
+// nothing ever scans every pending expiry. deadlines are rounded up to the next tick
+class TimingWheel {
+    // a scheduled task, linked into its bucket so that it can be cancelled in place
+    final class Timeout {
+        private final Runnable task;
+        private long rounds; // full turns of the wheel left before the task is due
+        private int bucket = -1; // -1 once the task has run or been cancelled
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        void cancel() {
+            synchronized (TimingWheel.this) {
+                unlink(this);
+            }
+        }
+    }
+
+    private final long tickMillis;
+    private final long startMillis;
+    private final Timeout[] buckets; // the head of each bucket's list
+    private long currentTick; // the next tick to process
+    private int pending;
+
+    TimingWheel(long tickMillis, int size) {
+        this(tickMillis, size, System.currentTimeMillis());
+    }
+
+    TimingWheel(long tickMillis, int size, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+        this.buckets = new Timeout[size];
+    }
+
+    // runs the task once System.currentTimeMillis() has reached the deadline
+    synchronized Timeout schedule(long deadlineMillis, Runnable task) {
+        long tick = Math.max(currentTick, (deadlineMillis - startMillis + tickMillis - 1) / tickMillis);
+        Timeout timeout = new Timeout(task);
+        timeout.rounds = (tick - currentTick) / buckets.length;
+        timeout.bucket = (int) (tick % buckets.length);
+        timeout.next = buckets[timeout.bucket];
+        if (timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+        buckets[timeout.bucket] = timeout;
+        pending++;
+        return timeout;
+    }
+
+    // processes every tick up to now and runs the tasks that fell due, outside the lock
+    void advance(long nowMillis) {
+        List<Runnable> due = new ArrayList<>();
+        synchronized (this) {
+            while (startMillis + currentTick * tickMillis <= nowMillis) {
+                Timeout timeout = buckets[(int) (currentTick % buckets.length)];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.rounds == 0) {
+                        unlink(timeout);
+                        due.add(timeout.task);
+                    } else {
+                        timeout.rounds--;
+                    }
+                    timeout = next;
+                }
+                currentTick++;
+            }
+        }
+        for (Runnable task : due) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Expiry task failed: " + e.getMessage());
+            }
+        }
+    }
+
+    synchronized int pending() {
+        return pending;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.bucket < 0) {
+            return;
+        }
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        pending--;
+    }
+}
@@ -0,0 +1,58 @@
+package src.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// reads the kernel's per-socket UDP counters from /proc/net/udp and /proc/net/udp6 (Linux only),
+// so that datagrams shed by a full receive queue show up even though the server never sees them
+class UdpDropCounters {
+    static class SocketStats {
+        final long receiveQueueBytes;
+        final long drops;
+
+        SocketStats(long receiveQueueBytes, long drops) {
+            this.receiveQueueBytes = receiveQueueBytes;
+            this.drops = drops;
+        }
+    }
+
+    // socket inode -> counters, for every UDP socket bound to the given local port
+    static Map<Long, SocketStats> read(int port) {
+        Map<Long, SocketStats> stats = new TreeMap<>();
+        readTable(Paths.get("/proc/net/udp"), port, stats);
+        readTable(Paths.get("/proc/net/udp6"), port, stats);
+        return stats;
+    }
+
+    private static void readTable(Path table, int port, Map<Long, SocketStats> stats) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(table);
+        } catch (IOException e) {
+            return; // not on Linux, or no table for this address family
+        }
+        // columns: sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout
+        // inode ref pointer drops
+        for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length < 13) {
+                continue;
+            }
+            String localAddress = fields[1];
+            int localPort = Integer.parseInt(localAddress.substring(localAddress.indexOf(':') + 1), 16);
+            if (localPort != port) {
+                continue;
+            }
+            String queues = fields[4];
+            long receiveQueue = Long.parseLong(queues.substring(queues.indexOf(':') + 1), 16);
+            long inode = Long.parseLong(fields[9]);
+            long drops = Long.parseLong(fields[12]);
+            stats.put(inode, new SocketStats(receiveQueue, drops));
+        }
+    }
+}
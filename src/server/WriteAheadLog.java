@@ -0,0 +1,233 @@
+package src.server;
+
+import src.utils.Marshaller;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32;
+
+// log of inserts and appends that makes them durable without rewriting the data files. writers
+// queue a record and wait for it to be committed; a single committer thread writes whatever has
+// queued up and syncs it with one fsync (group commit). a checkpoint periodically writes the dirty
+// files back and empties the log, and on restart the remaining records are replayed. once a
+// commit fails, the log may end in a torn record, so every later record is refused and no more
+// checkpoints are taken.
+class WriteAheadLog {
+    static class Record {
+        final byte operationCode; // 2 = insert, 5 = append
+        final String filename;
+        final int offset;
+        final byte[] content;
+        final long timeLastModified; // the file's modification time after this mutation
+        final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+        Record(byte operationCode, String filename, int offset, byte[] content, long timeLastModified) {
+            this.operationCode = operationCode;
+            this.filename = filename;
+            this.offset = offset;
+            this.content = content;
+            this.timeLastModified = timeLastModified;
+        }
+    }
+
+    private static final int HEADER_BYTES = 2 * Integer.BYTES; // record length and checksum
+
+    private final FileChannel channel;
+    private final long commitIntervalNanos;
+    private final int batchSize;
+    private final long checkpointIntervalNanos;
+    private final LinkedBlockingQueue<Record> pending = new LinkedBlockingQueue<>();
+    private volatile boolean running;
+    private volatile IOException failure; // the first failed commit, after which nothing more is logged
+    private Thread committer;
+    private BooleanSupplier flushFiles;
+    private long lastCheckpoint;
+
+    WriteAheadLog(Path path, int commitIntervalMillis, int batchSize, int checkpointIntervalSeconds)
+            throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.commitIntervalNanos = TimeUnit.MILLISECONDS.toNanos(commitIntervalMillis);
+        this.batchSize = batchSize;
+        this.checkpointIntervalNanos = TimeUnit.SECONDS.toNanos(checkpointIntervalSeconds);
+    }
+
+    // reads back every complete record; a torn record left by a crash ends the log and is cut off
+    List<Record> readRecords() throws IOException {
+        ByteBuffer log = ByteBuffer.allocate((int) channel.size());
+        while (log.hasRemaining()) {
+            if (channel.read(log, log.position()) < 0) {
+                break;
+            }
+        }
+        log.flip();
+
+        List<Record> records = new ArrayList<>();
+        while (log.remaining() >= HEADER_BYTES) {
+            int start = log.position();
+            int length = log.getInt();
+            int checksum = log.getInt();
+            if (length < 0 || length > log.remaining() || checksum != checksum(log, log.position(), length)) {
+                log.position(start);
+                break;
+            }
+            byte operationCode = log.get();
+            long timeLastModified = Marshaller.unmarshallLong(log);
+            int offset = Marshaller.unmarshallInteger(log);
+            String filename = Marshaller.unmarshallString(log);
+            byte[] content = Marshaller.unmarshallBytes(log);
+            records.add(new Record(operationCode, filename, offset, content, timeLastModified));
+        }
+        channel.truncate(log.position());
+        channel.position(log.position());
+        return records;
+    }
+
+    // checkpoints whatever was replayed and starts group commits; flushFiles writes every dirty
+    // file back and is used for checkpoints
+    void start(BooleanSupplier flushFiles) throws IOException {
+        this.flushFiles = flushFiles;
+        checkpoint();
+        this.running = true;
+        this.committer = new Thread(this::commitLoop, "wal-committer");
+        committer.start();
+    }
+
+    // queues a mutation; the returned future completes once it is synced to the log
+    CompletableFuture<Void> append(byte operationCode, String filename, int offset, byte[] content,
+            long timeLastModified) {
+        Record record = new Record(operationCode, filename, offset, content, timeLastModified);
+        if (failure != null) {
+            record.committed.completeExceptionally(failure);
+            return record.committed;
+        }
+        if (!running) {
+            record.committed.completeExceptionally(new IllegalStateException("Write-ahead log is closed"));
+            return record.committed;
+        }
+        pending.add(record);
+        return record.committed;
+    }
+
+    // commits everything still queued, checkpoints and stops the committer
+    void close() throws InterruptedException {
+        running = false;
+        if (committer != null) {
+            committer.join();
+        }
+        // anything that slipped in after the final commit is refused rather than left waiting
+        Record record;
+        while ((record = pending.poll()) != null) {
+            record.committed.completeExceptionally(new IllegalStateException("Write-ahead log is closed"));
+        }
+    }
+
+    boolean hasFailed() {
+        return failure != null;
+    }
+
+    // writes the dirty files back and empties the log, so it only holds changes since the checkpoint
+    void checkpoint() throws IOException {
+        if (failure != null) {
+            return; // the files hold changes that were never logged
+        }
+        if (flushFiles.getAsBoolean()) {
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(true);
+        }
+        lastCheckpoint = System.nanoTime();
+    }
+
+    private void commitLoop() {
+        while (running || !pending.isEmpty()) {
+            try {
+                Record first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    List<Record> batch = new ArrayList<>();
+                    batch.add(first);
+                    // wait up to the commit interval for more records to share this fsync
+                    long deadline = System.nanoTime() + commitIntervalNanos;
+                    while (batch.size() < batchSize) {
+                        long remaining = deadline - System.nanoTime();
+                        Record next = remaining > 0 ? pending.poll(remaining, TimeUnit.NANOSECONDS) : pending.poll();
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                    commit(batch);
+                }
+                if (System.nanoTime() - lastCheckpoint >= checkpointIntervalNanos) {
+                    checkpoint();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                System.err.println("Write-ahead log checkpoint failed: " + e.getMessage());
+            }
+        }
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            System.err.println("Write-ahead log checkpoint failed: " + e.getMessage());
+        }
+    }
+
+    private void commit(List<Record> batch) {
+        if (failure != null) {
+            batch.forEach(record -> record.committed.completeExceptionally(failure));
+            return;
+        }
+        try {
+            List<byte[]> encoded = new ArrayList<>(batch.size());
+            int total = 0;
+            for (Record record : batch) {
+                byte[] bytes = encode(record);
+                encoded.add(bytes);
+                total += bytes.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(total);
+            encoded.forEach(buffer::put);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            batch.forEach(record -> record.committed.complete(null));
+        } catch (IOException e) {
+            failure = e;
+            batch.forEach(record -> record.committed.completeExceptionally(e));
+        }
+    }
+
+    private static byte[] encode(Record record) {
+        int length = 1 + Long.BYTES + 3 * Integer.BYTES + Marshaller.encodedLength(record.filename)
+                + record.content.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + length);
+        buffer.putInt(length);
+        buffer.putInt(0); // checksum, filled in below
+        buffer.put(record.operationCode);
+        Marshaller.marshall(record.timeLastModified, buffer);
+        Marshaller.marshall(record.offset, buffer);
+        Marshaller.marshall(record.filename, buffer);
+        Marshaller.marshall(record.content, buffer);
+        buffer.putInt(Integer.BYTES, checksum(buffer, HEADER_BYTES, length));
+        return buffer.array();
+    }
+
+    private static int checksum(ByteBuffer buffer, int position, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(position).limit(position + length));
+        return (int) crc.getValue();
+    }
+}
@@ -4,22 +4,58 @@ import java.lang.StringIndexOutOfBoundsException;
 import java.util.Arrays;
 import java.io.*;
 import java.lang.Math;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 public class FileHandler {
 
-    public static void writeToFile(String fileName, byte[] content) {
-        FileOutputStream fos = null;
-        try {
-            File file = new File(fileName);
-            fos = new FileOutputStream(file);
-            for (byte b : content) {
-                fos.write(b);
-            }
-            long timeLastModified = System.currentTimeMillis();
+    public static void writeToFile(String fileName, byte[] content) throws IOException {
+        writeToFile(fileName, content, System.currentTimeMillis());
+    }
+
+    public static void writeToFile(String fileName, byte[] content, long timeLastModified) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(fileName)) {
+            fos.write(content);
             fos.write(Marshaller.marshall(timeLastModified));
-            fos.close();
-        } catch (IOException e) {
-            System.out.println("Unable to read file: " + e.getMessage());
+        }
+    }
+
+    // replaces the file with a fully written and synced copy, so a crash leaves either the old or
+    // the new version on disk and never a torn one
+    public static void writeToFileDurably(String fileName, byte[] content, long timeLastModified)
+            throws IOException {
+        Path path = Paths.get(fileName);
+        Path temp = Paths.get(fileName + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(content.length + Long.BYTES);
+            Marshaller.marshall(timeLastModified, buffer.put(content));
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // appends content without rewriting the file: the new bytes overwrite the old trailing
+    // timestamp and are followed by the new one, in a single positional write
+    public static void appendToFile(String fileName, byte[] content, long timeLastModified) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long position = size >= Long.BYTES ? size - Long.BYTES : 0;
+            ByteBuffer buffer = ByteBuffer.allocate(content.length + Long.BYTES);
+            Marshaller.marshall(timeLastModified, buffer.put(content));
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
         }
     }
 
@@ -33,7 +69,7 @@ public class FileHandler {
             int fileLength = (int) file.length();
             if (fileLength == 0) {
                 fis.close();
-                return new InMemoryFile(fileName, "");
+                return new InMemoryFile(fileName, new byte[0]);
             }
             int fileContentLength = fileLength - Long.BYTES;
             buffer = new byte[fileLength];
@@ -43,7 +79,7 @@ public class FileHandler {
                     && (bytesRead = fis.read(buffer, offset, fileLength - offset)) >= 0) {
                 offset += bytesRead;
             }
-            String fileContent = Marshaller.unmarshallString(Arrays.copyOfRange(buffer, 0, fileContentLength));
+            byte[] fileContent = Arrays.copyOfRange(buffer, 0, fileContentLength);
             long timeLastModified = Marshaller
                     .unmarshallLong(Arrays.copyOfRange(buffer, fileContentLength, fileLength));
             fis.close();
@@ -54,25 +90,34 @@ public class FileHandler {
         return readFile;
     }
 
-    public static String getFileContent(InMemoryFile file, int offset, int numBytesToRead) {
-        if (file.getFileContent().length() == 0) {
-            return "";
-        } else if (offset > file.getFileContent().length()) {
+    // offsets and lengths are in bytes
+    public static byte[] getFileContent(InMemoryFile file, int offset, int numBytesToRead) {
+        int length = getRangeLength(file, offset, numBytesToRead);
+        return length == 0 ? new byte[0] : file.getContentRange(offset, offset + length);
+    }
+
+    // the number of bytes getFileContent returns, so the range can be copied into a buffer of that size
+    public static int getRangeLength(InMemoryFile file, int offset, int numBytesToRead) {
+        int length = file.getContentLength();
+        if (length == 0) {
+            return 0;
+        } else if (offset > length) {
             throw new StringIndexOutOfBoundsException("Offset provided exceeds the current file length");
         }
-        return file.getFileContent().substring(offset,
-                Math.min(offset + numBytesToRead, file.getFileContent().length()));
+        return Math.min(numBytesToRead, length - offset);
     }
 
-    public static void updateFileContent(InMemoryFile file, int offset, String newContent) {
-        if (offset > file.getFileContent().length()) {
+    public static void updateFileContent(InMemoryFile file, int offset, byte[] newContent) {
+        // modification times only move forward, even for several updates within one millisecond
+        updateFileContent(file, offset, newContent,
+                Math.max(System.currentTimeMillis(), file.getTimeLastModified() + 1));
+    }
+
+    public static void updateFileContent(InMemoryFile file, int offset, byte[] newContent, long timeLastModified) {
+        if (offset > file.getContentLength()) {
             throw new StringIndexOutOfBoundsException("Offset provided exceeds the current file length");
         }
-        int curLength = file.getFileContent().length();
-        String prefix = file.getFileContent().substring(0, offset);
-        String suffix = file.getFileContent().substring(offset, curLength);
-
-        file.setFileContent(prefix + newContent + suffix);
-        file.setTimeLastModified(System.currentTimeMillis());
+        file.insertContent(offset, newContent);
+        file.setTimeLastModified(timeLastModified);
     }
 }
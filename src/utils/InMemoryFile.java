@@ -1,19 +1,36 @@
 package src.utils;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// file content is kept as raw bytes; offsets and lengths are byte counts and text is only
+// encoded or decoded (as UTF-8) at the edges, e.g. when a user types or displays it
 public class InMemoryFile {
     private String fileName;
-    private String fileContent;
+    private Rope fileContent; // a rope so that inserts do not copy the whole file
+    // fileContent as one array, built on demand. readers holding only the read lock may build it
+    // at the same time, so it is volatile to publish the finished array safely
+    private volatile byte[] contentSnapshot;
     private long timeLastModified;
 
     public InMemoryFile(String fileName, String fileContent) {
+        this(fileName, fileContent.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public InMemoryFile(String fileName, byte[] fileContent) {
         this.fileName = fileName;
-        this.fileContent = fileContent;
+        setFileContent(fileContent);
         this.timeLastModified = System.currentTimeMillis();
     }
 
-    protected InMemoryFile(String fileName, String fileContent, long timeLastModified) {
+    protected InMemoryFile(String fileName, byte[] fileContent, long timeLastModified) {
+        this(fileName, ByteBuffer.wrap(fileContent), timeLastModified);
+    }
+
+    // takes the content between the buffer's position and limit
+    protected InMemoryFile(String fileName, ByteBuffer fileContent, long timeLastModified) {
         this.fileName = fileName;
-        this.fileContent = fileContent;
+        this.fileContent = new Rope(fileContent);
         this.timeLastModified = timeLastModified;
     }
 
@@ -21,8 +38,33 @@ public class InMemoryFile {
         return this.fileName;
     }
 
+    // the content decoded as text, for display
     public String getFileContent() {
-        return this.fileContent;
+        return new String(getFileBytes(), StandardCharsets.UTF_8);
+    }
+
+    // the whole content; the returned array is shared and must not be modified
+    public byte[] getFileBytes() {
+        byte[] snapshot = this.contentSnapshot;
+        if (snapshot == null) {
+            snapshot = this.fileContent.toBytes();
+            this.contentSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    public int getContentLength() {
+        return this.fileContent.length();
+    }
+
+    // extracts bytes [start, end) without materialising the rest of the file
+    public byte[] getContentRange(int start, int end) {
+        return this.fileContent.slice(start, end);
+    }
+
+    // puts bytes [start, end) straight into target at its position
+    public void getContentRange(int start, int end, ByteBuffer target) {
+        this.fileContent.copyTo(start, end, target);
     }
 
     public long getTimeLastModified() {
@@ -33,8 +75,14 @@ public class InMemoryFile {
         this.fileName = fileName;
     }
 
-    protected void setFileContent(String fileContent) {
-        this.fileContent = fileContent;
+    protected void setFileContent(byte[] fileContent) {
+        this.fileContent = new Rope(fileContent);
+        this.contentSnapshot = null;
+    }
+
+    protected void insertContent(int offset, byte[] newContent) {
+        this.fileContent = this.fileContent.insert(offset, newContent);
+        this.contentSnapshot = null;
     }
 
     protected void setTimeLastModified(long timeLastModified) {
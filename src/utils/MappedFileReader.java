@@ -0,0 +1,94 @@
+package src.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Serves ranged reads straight out of a read-only memory mapping of each file, so a small window
+ * of a large file is copied once, into the reply, without loading or decoding the rest of it. A
+ * file is remapped when its size or identity changes, e.g. after it grows or is replaced.
+ *
+ * Callers must not read a file while another thread is rewriting it.
+ */
+public class MappedFileReader {
+    private static class Mapping {
+        final MappedByteBuffer buffer;
+        final long fileSize;
+        final Object fileKey;
+
+        Mapping(MappedByteBuffer buffer, long fileSize, Object fileKey) {
+            this.buffer = buffer;
+            this.fileSize = fileSize;
+            this.fileKey = fileKey;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Mapping> mappings = new ConcurrentHashMap<>();
+
+    // returns a read-only view of up to numBytesToRead bytes of file content from offset, or null if
+    // the file does not exist. nothing is copied, so the view must be consumed before the file is
+    // next rewritten
+    public ByteBuffer read(String fileName, int offset, int numBytesToRead) throws IOException {
+        Mapping mapping = mappingFor(fileName);
+        if (mapping == null) {
+            return null;
+        }
+        // the last Long.BYTES bytes of a file hold its modification time
+        int contentLength = (int) Math.max(0, mapping.fileSize - Long.BYTES);
+        if (contentLength == 0) {
+            return ByteBuffer.allocate(0);
+        } else if (offset > contentLength) {
+            throw new StringIndexOutOfBoundsException("Offset provided exceeds the current file length");
+        }
+        return mapping.buffer.slice(offset, Math.min(numBytesToRead, contentLength - offset)).asReadOnlyBuffer();
+    }
+
+    // returns the modification time stored at the end of the file, or -1 if the file does not exist
+    // or has no modification time yet, like the empty files created at startup
+    public long lastModified(String fileName) throws IOException {
+        Mapping mapping = mappingFor(fileName);
+        if (mapping == null || mapping.fileSize < Long.BYTES) {
+            return -1;
+        }
+        return Marshaller.unmarshallLong(mapping.buffer, (int) (mapping.fileSize - Long.BYTES));
+    }
+
+    // true if the file is still at the given version. a file without a modification time never is,
+    // so a conditional read of it always returns the range
+    public boolean isCurrent(String fileName, long version) throws IOException {
+        long lastModified = lastModified(fileName);
+        return lastModified >= 0 && lastModified == version;
+    }
+
+    private Mapping mappingFor(String fileName) throws IOException {
+        Path path = Paths.get(fileName);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            mappings.remove(fileName);
+            return null;
+        }
+        Mapping mapping = mappings.get(fileName);
+        if (mapping != null && mapping.fileSize == attributes.size()
+                && Objects.equals(attributes.fileKey(), mapping.fileKey)) {
+            return mapping;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            mapping = new Mapping(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), size, attributes.fileKey());
+        }
+        mappings.put(fileName, mapping);
+        return mapping;
+    }
+}
@@ -1,65 +1,140 @@
 package src.utils;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
-
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+// strings are always encoded as UTF-8 so both ends agree on byte lengths and offsets.
+// every type can be marshalled into a new byte[] or, without any intermediate array, straight
+// into a caller-supplied ByteBuffer at its position. in a buffer, strings and file content are
+// prefixed with their length in bytes.
 public class Marshaller {
+    // encoders keep state between calls, so every thread gets its own
+    private static final ThreadLocal<CharsetEncoder> ENCODER = ThreadLocal
+            .withInitial(() -> StandardCharsets.UTF_8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE));
 
     private static String bytesToString(byte[] message) {
-        return new String(message);
+        return new String(message, StandardCharsets.UTF_8);
     }
 
     private static int bytesToInteger(byte[] message) {
-        return ByteBuffer.wrap(message).getInt();
+        return (message[0] & 0xff) << 24 | (message[1] & 0xff) << 16 | (message[2] & 0xff) << 8
+                | (message[3] & 0xff);
     }
 
     private static long bytesToLong(byte[] message) {
-        return ByteBuffer.wrap(message).getLong();
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = value << 8 | (message[i] & 0xff);
+        }
+        return value;
     }
 
     private static InMemoryFile bytesToFile(byte[] file) {
-        int fileNameLength = bytesToInteger(Arrays.copyOfRange(file, 0, Integer.BYTES));
-        String fileName = bytesToString(Arrays.copyOfRange(file, Integer.BYTES, Integer.BYTES + fileNameLength));
-        int fileContentLength = bytesToInteger(
-                Arrays.copyOfRange(file, Integer.BYTES + fileNameLength, (2 * Integer.BYTES) + fileNameLength));
-        String fileContent = bytesToString(Arrays.copyOfRange(file, (2 * Integer.BYTES) + fileNameLength,
-                (2 * Integer.BYTES) + fileNameLength + fileContentLength));
-        long fileTimeLastModified = bytesToLong(
-                Arrays.copyOfRange(file, (2 * Integer.BYTES) + fileNameLength + fileContentLength,
-                        (2 * Integer.BYTES) + fileNameLength + fileContentLength + Long.BYTES));
-        return new InMemoryFile(fileName, fileContent, fileTimeLastModified);
-
+        return bufferToFile(ByteBuffer.wrap(file));
+    }
+
+    private static InMemoryFile bufferToFile(ByteBuffer buffer) {
+        String fileName = bufferToString(buffer, buffer.getInt());
+        int fileContentLength = buffer.getInt();
+        int contentStart = buffer.position();
+        // the modification time follows the content, so it is read first and the rope is built
+        // straight from the buffer
+        long fileTimeLastModified = buffer.getLong(contentStart + fileContentLength);
+        InMemoryFile file = new InMemoryFile(fileName, buffer.slice(contentStart, fileContentLength),
+                fileTimeLastModified);
+        buffer.position(contentStart + fileContentLength + Long.BYTES);
+        return file;
+    }
+
+    private static String bufferToString(ByteBuffer buffer, int length) {
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                    StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(buffer.position(), bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(buffer.position() + length);
+        return value;
     }
 
     private static byte[] stringToBytes(String message) {
-        return message.getBytes();
+        return message.getBytes(StandardCharsets.UTF_8);
     }
 
     private static byte[] intToBytes(int value) {
-        return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+        return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
     }
 
     private static byte[] longToBytes(long value) {
-        return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+        byte[] bytes = new byte[Long.BYTES];
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
     }
 
     private static byte[] fileToBytes(InMemoryFile file) {
-        byte[] fileName = stringToBytes(file.getFileName());
-        byte[] fileNameLength = intToBytes(fileName.length);
-        byte[] fileContent = stringToBytes(file.getFileContent());
-        byte[] fileContentLength = intToBytes(fileContent.length);
-        byte[] fileLastModifiedTime = longToBytes(file.getTimeLastModified());
-
-        byte[] combined = new byte[Long.BYTES + (2 * Integer.BYTES) + fileName.length + fileContent.length];
-        System.arraycopy(fileNameLength, 0, combined, 0, Integer.BYTES);
-        System.arraycopy(fileName, 0, combined, Integer.BYTES, fileName.length);
-        System.arraycopy(fileContentLength, 0, combined, Integer.BYTES + fileName.length, Integer.BYTES);
-        System.arraycopy(fileContent, 0, combined, (2 * Integer.BYTES) + fileName.length, fileContent.length);
-        System.arraycopy(fileLastModifiedTime, 0, combined, (2 * Integer.BYTES) + fileName.length + fileContent.length,
-                Long.BYTES);
+        byte[] combined = new byte[(2 * Integer.BYTES) + encodedLength(file.getFileName())
+                + file.getContentLength() + Long.BYTES];
+        fileToBuffer(file, ByteBuffer.wrap(combined));
         return combined;
     }
 
+    private static void fileToBuffer(InMemoryFile file, ByteBuffer buffer) {
+        stringToBuffer(file.getFileName(), buffer);
+        buffer.putInt(file.getContentLength());
+        file.getContentRange(0, file.getContentLength(), buffer);
+        buffer.putLong(file.getTimeLastModified());
+    }
+
+    // encodes straight into the buffer and fills in the length prefix afterwards
+    private static void stringToBuffer(String message, ByteBuffer buffer) {
+        int lengthPosition = buffer.position();
+        buffer.position(lengthPosition + Integer.BYTES);
+        CharsetEncoder encoder = ENCODER.get().reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(message), buffer, true);
+        if (result.isUnderflow()) {
+            result = encoder.flush(buffer);
+        }
+        if (result.isOverflow()) {
+            throw new BufferOverflowException();
+        }
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - Integer.BYTES);
+    }
+
+    // the number of bytes the string takes up as UTF-8, without encoding it
+    public static int encodedLength(String message) {
+        int length = 0;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < message.length()
+                    && Character.isLowSurrogate(message.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1; // an unpaired surrogate is replaced with '?'
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
     public static byte[] marshall(int message) {
         return intToBytes(message);
     }
@@ -76,6 +151,26 @@ public class Marshaller {
         return fileToBytes(file);
     }
 
+    public static void marshall(int message, ByteBuffer buffer) {
+        buffer.putInt(message);
+    }
+
+    public static void marshall(long message, ByteBuffer buffer) {
+        buffer.putLong(message);
+    }
+
+    public static void marshall(String message, ByteBuffer buffer) {
+        stringToBuffer(message, buffer);
+    }
+
+    public static void marshall(byte[] message, ByteBuffer buffer) {
+        buffer.putInt(message.length).put(message);
+    }
+
+    public static void marshall(InMemoryFile file, ByteBuffer buffer) {
+        fileToBuffer(file, buffer);
+    }
+
     public static String unmarshallString(byte[] message) {
         return bytesToString(message);
     }
@@ -91,4 +186,41 @@ public class Marshaller {
     public static InMemoryFile unmarshallFile(byte[] file) {
         return bytesToFile(file);
     }
+
+    public static int unmarshallInteger(ByteBuffer buffer) {
+        return buffer.getInt();
+    }
+
+    // reads at index without moving the buffer's position
+    public static int unmarshallInteger(ByteBuffer buffer, int index) {
+        return buffer.getInt(index);
+    }
+
+    public static long unmarshallLong(ByteBuffer buffer) {
+        return buffer.getLong();
+    }
+
+    // reads at index without moving the buffer's position
+    public static long unmarshallLong(ByteBuffer buffer, int index) {
+        return buffer.getLong(index);
+    }
+
+    public static String unmarshallString(ByteBuffer buffer) {
+        return bufferToString(buffer, buffer.getInt());
+    }
+
+    // decodes length bytes without a prefix, e.g. for a field whose length was sent separately
+    public static String unmarshallString(ByteBuffer buffer, int length) {
+        return bufferToString(buffer, length);
+    }
+
+    public static byte[] unmarshallBytes(ByteBuffer buffer) {
+        byte[] message = new byte[buffer.getInt()];
+        buffer.get(message);
+        return message;
+    }
+
+    public static InMemoryFile unmarshallFile(ByteBuffer buffer) {
+        return bufferToFile(buffer);
+    }
 }
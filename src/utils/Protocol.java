@@ -0,0 +1,392 @@
+package src.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Wire format shared by client and server. Every datagram starts with a fixed 24-byte header:
+ *
+ *   0  short  magic (0xCE13)      8  long   client ID
+ *   2  byte   version            16  long   sequence number
+ *   3  byte   operation code
+ *   4  byte   flags
+ *   5  byte   status (replies)
+ *   6  short  outstanding
+ *
+ * In a request, the outstanding count is how many sequence numbers below the request's own the
+ * client may still resend; the replies to all older requests have arrived, so the server can
+ * forget them.
+ *
+ * A request body follows at fixed offsets: an int offset, an int length (the number of bytes to
+ * read, or the monitor interval in seconds), a short name length, the UTF-8 file name and, for
+ * inserts and appends, the content up to the end of the datagram. A reply body is the payload
+ * alone, or an error message when the status is not STATUS_OK.
+ *
+ * A conditional read (OP_READ_IF_MODIFIED) is laid out like a read, with the long version of
+ * the range the client has cached as its content. If the file is still at that version the reply
+ * is STATUS_NOT_MODIFIED with an empty body; otherwise the body is the file's long version
+ * followed by the range. Versions are the file's modification times.
+ *
+ * A conditional read with FLAG_LEASE also asks for a lease on the file. If the server grants
+ * one, its reply carries FLAG_LEASE too, with the lease's length in seconds in the header's
+ * outstanding field, which replies do not otherwise use. Until the lease expires, the server
+ * sends the client an OP_INVALIDATE datagram (with FLAG_NOTIFICATION) when the file changes,
+ * carrying a server-chosen sequence number, the file's new long version and its name. The
+ * client acknowledges it with a bare OP_INVALIDATE header with the same sequence number, and
+ * until then the server sends it again.
+ *
+ * A batch request (OP_BATCH) instead carries a short count followed by that many operations, each
+ * a byte operation code, an int body length and a body laid out like a single request's. Its
+ * reply carries the same count followed by one part per operation, in order: the operation code,
+ * a status byte, an int body length and the body.
+ *
+ * A message larger than one chunk is streamed instead (FLAG_CHUNKED): every chunk datagram carries
+ * the message's header fields, then an int transfer ID, the chunk index, the chunk count and the
+ * message's total length, followed by its slice of the complete framed message. The receiver
+ * acknowledges with OP_ACK datagrams carrying the transfer ID, the number of chunks received
+ * contiguously from the start and a bitmap of the 64 chunks after that, so only missing chunks
+ * are sent again.
+ *
+ * Monitor updates (FLAG_NOTIFICATION) carry an update body: a byte kind, the operation code of
+ * the change, the long version the change applies to, the long version it produces, an int offset
+ * and the data up to the end. A delta inserts its data at the offset of the base version, which
+ * covers both inserts and appends; a snapshot carries the whole file and no base. Versions are the
+ * file's modification times, which only move forward. A subscriber that misses a delta sends
+ * OP_RESYNC with the sequence number of its monitor request and the file name, and is answered
+ * with a snapshot.
+ *
+ * Datagrams without the magic use the original layout (a length-prefixed request ID string, the
+ * operation code, then length-prefixed fields) and are answered with bare payloads; no request ID
+ * can be long enough to be mistaken for the magic.
+ */
+public final class Protocol {
+    public static final short MAGIC = (short) 0xCE13;
+    public static final byte LEGACY_VERSION = 1;
+    public static final byte VERSION = 2;
+
+    public static final int MAGIC_OFFSET = 0;
+    public static final int VERSION_OFFSET = 2;
+    public static final int OPERATION_OFFSET = 3;
+    public static final int FLAGS_OFFSET = 4;
+    public static final int STATUS_OFFSET = 5;
+    public static final int OUTSTANDING_OFFSET = 6;
+    public static final int CLIENT_ID_OFFSET = 8;
+    public static final int SEQUENCE_OFFSET = 16;
+    public static final int HEADER_BYTES = 24;
+
+    // request body fields, relative to the start of the body
+    public static final int BODY_OFFSET = 0;
+    public static final int BODY_LENGTH = 4;
+    public static final int BODY_NAME_LENGTH = 8;
+    public static final int BODY_NAME = 10;
+
+    public static final int OFFSET_OFFSET = HEADER_BYTES + BODY_OFFSET;
+    public static final int LENGTH_OFFSET = HEADER_BYTES + BODY_LENGTH;
+    public static final int NAME_LENGTH_OFFSET = HEADER_BYTES + BODY_NAME_LENGTH;
+    public static final int NAME_OFFSET = HEADER_BYTES + BODY_NAME;
+
+    public static final byte OP_READ = 1;
+    public static final byte OP_INSERT = 2;
+    public static final byte OP_MONITOR = 3;
+    public static final byte OP_GET_INFO = 4;
+    public static final byte OP_APPEND = 5;
+    public static final byte OP_BATCH = 6;
+    public static final byte OP_ACK = 7; // acknowledges chunks of a streamed message, never answered
+    public static final byte OP_RESYNC = 8; // asks for a snapshot of a monitored file, answered by an update
+    public static final byte OP_READ_IF_MODIFIED = 9; // a read answered with STATUS_NOT_MODIFIED if the cached version is current
+    public static final byte OP_INVALIDATE = 10; // a leased file has changed, or the acknowledgement of that
+
+    public static final byte FLAG_NOTIFICATION = 0x01; // an update pushed to a monitoring client
+    public static final byte FLAG_CHUNKED = 0x02; // one chunk of a streamed message
+    public static final byte FLAG_LEASE = 0x04; // asks for a lease in a conditional read, grants one in its reply
+
+    public static final int LEASE_OFFSET = OUTSTANDING_OFFSET; // the lease in seconds, in replies with FLAG_LEASE
+
+    public static final int CHUNK_TRANSFER_OFFSET = HEADER_BYTES;
+    public static final int CHUNK_INDEX_OFFSET = HEADER_BYTES + 4;
+    public static final int CHUNK_COUNT_OFFSET = HEADER_BYTES + 8;
+    public static final int CHUNK_TOTAL_OFFSET = HEADER_BYTES + 12;
+    public static final int CHUNK_DATA_OFFSET = HEADER_BYTES + 16;
+
+    public static final int ACK_TRANSFER_OFFSET = HEADER_BYTES;
+    public static final int ACK_RECEIVED_OFFSET = HEADER_BYTES + 4;
+    public static final int ACK_SELECTIVE_OFFSET = HEADER_BYTES + 8;
+    public static final int ACK_BYTES = HEADER_BYTES + 16;
+    public static final int SELECTIVE_ACK_CHUNKS = Long.SIZE;
+
+    public static final byte UPDATE_SNAPSHOT = 0;
+    public static final byte UPDATE_DELTA = 1;
+    public static final int UPDATE_HEADER_BYTES = 22;
+
+    public static final int MAX_DATAGRAM = 65507; // the largest UDP payload over IPv4
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_NOT_FOUND = 1;
+    public static final byte STATUS_BAD_OFFSET = 2;
+    public static final byte STATUS_BAD_REQUEST = 3;
+    public static final byte STATUS_UNSUPPORTED_VERSION = 4; // the reply header carries the server's version
+    public static final byte STATUS_ERROR = 5;
+    public static final byte STATUS_NOT_MODIFIED = 6; // the client's cached version is current, so the body is empty
+    public static final byte STATUS_STALE = 7; // below the client's dedup window, refused with its outcome unknown
+
+    // one operation of a batch request
+    public static final class Operation {
+        public final byte operationCode;
+        public final int offset;
+        public final int length;
+        public final String fileName;
+        public final byte[] payload; // null when the operation carries no content
+
+        public Operation(byte operationCode, int offset, int length, String fileName, byte[] payload) {
+            this.operationCode = operationCode;
+            this.offset = offset;
+            this.length = length;
+            this.fileName = fileName;
+            this.payload = payload;
+        }
+    }
+
+    // the outcome of one operation of a batch, as carried in the batch reply
+    public static final class Result {
+        public final byte operationCode;
+        public final byte status;
+        public final byte[] body;
+
+        public Result(byte operationCode, byte status, byte[] body) {
+            this.operationCode = operationCode;
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    // one monitor update, either a delta from a base version or a snapshot of the whole file
+    public static final class Update {
+        public final byte kind;
+        public final byte operationCode; // of the change, or OP_MONITOR for a snapshot
+        public final long baseVersion; // the version a delta applies to, 0 for a snapshot
+        public final long version;
+        public final int offset;
+        public final byte[] data; // the inserted bytes, or the whole file
+
+        public Update(byte kind, byte operationCode, long baseVersion, long version, int offset, byte[] data) {
+            this.kind = kind;
+            this.operationCode = operationCode;
+            this.baseVersion = baseVersion;
+            this.version = version;
+            this.offset = offset;
+            this.data = data;
+        }
+
+        public static Update snapshot(long version, byte[] content) {
+            return new Update(UPDATE_SNAPSHOT, OP_MONITOR, 0, version, 0, content);
+        }
+
+        public static Update delta(byte operationCode, long baseVersion, long version, int offset, byte[] inserted) {
+            return new Update(UPDATE_DELTA, operationCode, baseVersion, version, offset, inserted);
+        }
+
+        public boolean isSnapshot() {
+            return kind == UPDATE_SNAPSHOT;
+        }
+
+        // the content after this update, given the content at its base version for a delta
+        public byte[] applyTo(byte[] content) {
+            if (isSnapshot()) {
+                return data;
+            }
+            if (offset < 0 || offset > content.length) {
+                throw new IllegalArgumentException("Delta offset " + offset + " exceeds the content");
+            }
+            byte[] updated = new byte[content.length + data.length];
+            System.arraycopy(content, 0, updated, 0, offset);
+            System.arraycopy(data, 0, updated, offset, data.length);
+            System.arraycopy(content, offset, updated, offset + data.length, content.length - offset);
+            return updated;
+        }
+    }
+
+    private Protocol() {
+    }
+
+    // true if the datagram starting at the buffer's position uses this framing rather than the
+    // original layout
+    public static boolean isVersioned(ByteBuffer datagram) {
+        return datagram.remaining() >= HEADER_BYTES && datagram.getShort(datagram.position()) == MAGIC;
+    }
+
+    public static void putHeader(ByteBuffer buffer, byte operationCode, byte flags, byte status, long clientId,
+            long sequence) {
+        buffer.putShort(MAGIC).put(VERSION).put(operationCode).put(flags).put(status).putShort((short) 0);
+        buffer.putLong(clientId).putLong(sequence);
+    }
+
+    public static byte[] encodeRequest(byte operationCode, long clientId, long sequence, int offset, int length,
+            String fileName, byte[] payload) {
+        Operation operation = new Operation(operationCode, offset, length, fileName, payload);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + bodySize(operation));
+        putHeader(buffer, operationCode, (byte) 0, STATUS_OK, clientId, sequence);
+        putBody(buffer, operation);
+        return buffer.array();
+    }
+
+    public static byte[] encodeBatchRequest(long clientId, long sequence, List<Operation> operations) {
+        int size = HEADER_BYTES + Short.BYTES;
+        for (Operation operation : operations) {
+            size += 1 + Integer.BYTES + bodySize(operation);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        putHeader(buffer, OP_BATCH, (byte) 0, STATUS_OK, clientId, sequence);
+        buffer.putShort((short) operations.size());
+        for (Operation operation : operations) {
+            buffer.put(operation.operationCode).putInt(bodySize(operation));
+            putBody(buffer, operation);
+        }
+        return buffer.array();
+    }
+
+    private static int bodySize(Operation operation) {
+        return BODY_NAME + Marshaller.encodedLength(operation.fileName)
+                + (operation.payload != null ? operation.payload.length : 0);
+    }
+
+    private static void putBody(ByteBuffer buffer, Operation operation) {
+        byte[] name = Marshaller.marshall(operation.fileName);
+        buffer.putInt(operation.offset).putInt(operation.length).putShort((short) name.length).put(name);
+        if (operation.payload != null) {
+            buffer.put(operation.payload);
+        }
+    }
+
+    public static byte[] encodeReply(byte operationCode, byte flags, byte status, long clientId, long sequence,
+            byte[] body) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + body.length);
+        putHeader(buffer, operationCode, flags, status, clientId, sequence);
+        return buffer.put(body).array();
+    }
+
+    public static byte[] encodeBatchReplyBody(List<Result> results) {
+        int size = Short.BYTES;
+        for (Result result : results) {
+            size += 2 + Integer.BYTES + result.body.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putShort((short) results.size());
+        for (Result result : results) {
+            buffer.put(result.operationCode).put(result.status).putInt(result.body.length).put(result.body);
+        }
+        return buffer.array();
+    }
+
+    // splits the body of a batch reply, which starts at the buffer's position, into its parts
+    public static List<Result> decodeBatchReplyBody(ByteBuffer buffer) {
+        int count = Short.toUnsignedInt(buffer.getShort());
+        List<Result> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte operationCode = buffer.get();
+            byte status = buffer.get();
+            byte[] body = new byte[buffer.getInt()];
+            buffer.get(body);
+            results.add(new Result(operationCode, status, body));
+        }
+        return results;
+    }
+
+    public static byte[] encodeUpdateBody(Update update) {
+        ByteBuffer buffer = ByteBuffer.allocate(UPDATE_HEADER_BYTES + update.data.length);
+        buffer.put(update.kind).put(update.operationCode).putLong(update.baseVersion).putLong(update.version);
+        return buffer.putInt(update.offset).put(update.data).array();
+    }
+
+    // reads the update body that runs from the buffer's position to its limit
+    public static Update decodeUpdateBody(ByteBuffer buffer) {
+        if (buffer.remaining() < UPDATE_HEADER_BYTES) {
+            throw new IllegalArgumentException("Update body is too short");
+        }
+        byte kind = buffer.get();
+        byte operationCode = buffer.get();
+        long baseVersion = buffer.getLong();
+        long version = buffer.getLong();
+        int offset = buffer.getInt();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return new Update(kind, operationCode, baseVersion, version, offset, data);
+    }
+
+    // addresses a framed message to another client and request in place, so that a message
+    // encoded once can go to several subscribers in turn
+    public static void readdress(byte[] message, long clientId, long sequence) {
+        ByteBuffer.wrap(message).putLong(CLIENT_ID_OFFSET, clientId).putLong(SEQUENCE_OFFSET, sequence);
+    }
+
+    // chunk index of a complete framed message split into chunkSize pieces. the chunk repeats the
+    // message's header, with FLAG_CHUNKED added
+    public static byte[] encodeChunk(byte[] message, int transferId, int index, int chunkSize) {
+        int start = index * chunkSize;
+        int length = Math.min(chunkSize, message.length - start);
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_DATA_OFFSET + length);
+        buffer.put(message, 0, HEADER_BYTES).put(FLAGS_OFFSET, (byte) (message[FLAGS_OFFSET] | FLAG_CHUNKED));
+        buffer.putInt(transferId).putInt(index).putInt(chunkCount(message.length, chunkSize)).putInt(message.length);
+        return buffer.put(message, start, length).array();
+    }
+
+    public static int chunkCount(int messageLength, int chunkSize) {
+        return (messageLength + chunkSize - 1) / chunkSize;
+    }
+
+    // received is the number of chunks received from the start without a gap; bit i of selective
+    // is set if chunk received + 1 + i has arrived as well
+    public static byte[] encodeAck(long clientId, long sequence, int transferId, int received, long selective) {
+        ByteBuffer buffer = ByteBuffer.allocate(ACK_BYTES);
+        putHeader(buffer, OP_ACK, (byte) 0, STATUS_OK, clientId, sequence);
+        return buffer.putInt(transferId).putInt(received).putLong(selective).array();
+    }
+
+    // marks a framed reply as granting a lease of the given seconds
+    public static void grantLease(byte[] reply, int seconds) {
+        ByteBuffer.wrap(reply).put(FLAGS_OFFSET, (byte) (reply[FLAGS_OFFSET] | FLAG_LEASE))
+                .putShort(LEASE_OFFSET, (short) seconds);
+    }
+
+    // the lease granted by a framed reply in seconds, or 0 if it grants none
+    public static int leaseSeconds(ByteBuffer reply) {
+        if ((reply.get(FLAGS_OFFSET) & FLAG_LEASE) == 0) {
+            return 0;
+        }
+        return Short.toUnsignedInt(reply.getShort(LEASE_OFFSET));
+    }
+
+    public static byte[] encodeInvalidation(long clientId, long sequence, long version, String fileName) {
+        byte[] name = Marshaller.marshall(fileName);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + Long.BYTES + name.length);
+        putHeader(buffer, OP_INVALIDATE, FLAG_NOTIFICATION, STATUS_OK, clientId, sequence);
+        return buffer.putLong(version).put(name).array();
+    }
+
+    public static byte[] encodeInvalidationAck(long clientId, long sequence) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES);
+        putHeader(buffer, OP_INVALIDATE, (byte) 0, STATUS_OK, clientId, sequence);
+        return buffer.array();
+    }
+
+    public static String statusText(byte status) {
+        switch (status) {
+            case STATUS_OK:
+                return "OK";
+            case STATUS_NOT_FOUND:
+                return "Not found";
+            case STATUS_BAD_OFFSET:
+                return "Bad offset";
+            case STATUS_BAD_REQUEST:
+                return "Bad request";
+            case STATUS_UNSUPPORTED_VERSION:
+                return "Unsupported version";
+            case STATUS_NOT_MODIFIED:
+                return "Not modified";
+            case STATUS_STALE:
+                return "Request too old, outcome unknown";
+            default:
+                return "Error";
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package src.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+ * Immutable rope of bytes, stored as a height-balanced (AVL) tree of short byte array leaves.
+ * Inserting at any offset splits and re-joins O(log n) nodes instead of copying the whole
+ * content, and a range can be extracted without materialising the rest of the rope.
+ */
+public final class Rope {
+    private static final int MAX_LEAF = 512;
+    private static final Node EMPTY = new Leaf(new byte[0]);
+
+    private abstract static class Node {
+        final int length;
+        final int height;
+
+        Node(int length, int height) {
+            this.length = length;
+            this.height = height;
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final byte[] bytes; // never modified once the leaf is built
+
+        Leaf(byte[] bytes) {
+            super(bytes.length, 0);
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class Branch extends Node {
+        final Node left;
+        final Node right;
+
+        Branch(Node left, Node right) {
+            super(left.length + right.length, Math.max(left.height, right.height) + 1);
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    private final Node root;
+
+    public Rope(byte[] content) {
+        this(ByteBuffer.wrap(content));
+    }
+
+    // builds the rope from the content between the buffer's position and limit, leaving both as they are
+    public Rope(ByteBuffer content) {
+        this(build(content, content.position(), content.limit()));
+    }
+
+    private Rope(Node root) {
+        this.root = root;
+    }
+
+    public int length() {
+        return root.length;
+    }
+
+    public Rope insert(int offset, byte[] content) {
+        if (offset < 0 || offset > root.length) {
+            throw new StringIndexOutOfBoundsException("Offset provided exceeds the current file length");
+        }
+        if (content.length == 0) {
+            return this;
+        }
+        Node[] halves = split(root, offset);
+        return new Rope(join(join(halves[0], build(ByteBuffer.wrap(content), 0, content.length)), halves[1]));
+    }
+
+    // copies bytes [start, end) out of the rope
+    public byte[] slice(int start, int end) {
+        byte[] range = new byte[end - start];
+        copyTo(start, end, ByteBuffer.wrap(range));
+        return range;
+    }
+
+    // puts bytes [start, end) into target at its position
+    public void copyTo(int start, int end, ByteBuffer target) {
+        if (start < 0 || end > root.length || start > end) {
+            throw new StringIndexOutOfBoundsException("Range [" + start + ", " + end + ") is outside the rope");
+        }
+        copy(root, start, end, target);
+    }
+
+    public byte[] toBytes() {
+        return slice(0, root.length);
+    }
+
+    // builds a balanced tree over content[start, end) with leaves of at most MAX_LEAF bytes
+    private static Node build(ByteBuffer content, int start, int end) {
+        if (end - start <= MAX_LEAF) {
+            if (start == end) {
+                return EMPTY;
+            }
+            byte[] bytes = new byte[end - start];
+            content.get(start, bytes);
+            return new Leaf(bytes);
+        }
+        int middle = start + (end - start) / 2;
+        return new Branch(build(content, start, middle), build(content, middle, end));
+    }
+
+    // leaves are visited left to right, so the range lands in target in order
+    private static void copy(Node node, int start, int end, ByteBuffer target) {
+        if (start >= end) {
+            return;
+        }
+        if (node instanceof Leaf) {
+            target.put(((Leaf) node).bytes, start, end - start);
+            return;
+        }
+        Branch branch = (Branch) node;
+        int leftLength = branch.left.length;
+        if (start < leftLength) {
+            copy(branch.left, start, Math.min(end, leftLength), target);
+        }
+        if (end > leftLength) {
+            copy(branch.right, Math.max(start, leftLength) - leftLength, end - leftLength, target);
+        }
+    }
+
+    // splits a tree into [0, offset) and [offset, length)
+    private static Node[] split(Node node, int offset) {
+        if (offset == 0) {
+            return new Node[] { EMPTY, node };
+        }
+        if (offset == node.length) {
+            return new Node[] { node, EMPTY };
+        }
+        if (node instanceof Leaf) {
+            byte[] bytes = ((Leaf) node).bytes;
+            return new Node[] { new Leaf(Arrays.copyOfRange(bytes, 0, offset)),
+                    new Leaf(Arrays.copyOfRange(bytes, offset, bytes.length)) };
+        }
+        Branch branch = (Branch) node;
+        int leftLength = branch.left.length;
+        if (offset < leftLength) {
+            Node[] halves = split(branch.left, offset);
+            return new Node[] { halves[0], join(halves[1], branch.right) };
+        } else if (offset > leftLength) {
+            Node[] halves = split(branch.right, offset - leftLength);
+            return new Node[] { join(branch.left, halves[0]), halves[1] };
+        }
+        return new Node[] { branch.left, branch.right };
+    }
+
+    // concatenates two balanced trees, rebalancing along the spine of the taller one
+    private static Node join(Node left, Node right) {
+        if (left.length == 0) {
+            return right;
+        }
+        if (right.length == 0) {
+            return left;
+        }
+        if (left.height > right.height + 1) {
+            return joinRight((Branch) left, right);
+        }
+        if (right.height > left.height + 1) {
+            return joinLeft(left, (Branch) right);
+        }
+        return pair(left, right);
+    }
+
+    // joins two trees whose heights differ by at most one, merging small neighbouring leaves
+    private static Node pair(Node left, Node right) {
+        if (left instanceof Leaf && right instanceof Leaf && left.length + right.length <= MAX_LEAF) {
+            byte[] merged = Arrays.copyOf(((Leaf) left).bytes, left.length + right.length);
+            System.arraycopy(((Leaf) right).bytes, 0, merged, left.length, right.length);
+            return new Leaf(merged);
+        }
+        return new Branch(left, right);
+    }
+
+    private static Node joinRight(Branch left, Node right) {
+        Node inner = left.right;
+        if (inner.height <= right.height + 1) {
+            Node joined = pair(inner, right);
+            if (joined.height <= left.left.height + 1) {
+                return new Branch(left.left, joined);
+            }
+            return rotateLeft(new Branch(left.left, rotateRight((Branch) joined)));
+        }
+        Node joined = joinRight((Branch) inner, right);
+        Branch result = new Branch(left.left, joined);
+        return joined.height <= left.left.height + 1 ? result : rotateLeft(result);
+    }
+
+    private static Node joinLeft(Node left, Branch right) {
+        Node inner = right.left;
+        if (inner.height <= left.height + 1) {
+            Node joined = pair(left, inner);
+            if (joined.height <= right.right.height + 1) {
+                return new Branch(joined, right.right);
+            }
+            return rotateRight(new Branch(rotateLeft((Branch) joined), right.right));
+        }
+        Node joined = joinLeft(left, (Branch) inner);
+        Branch result = new Branch(joined, right.right);
+        return joined.height <= right.right.height + 1 ? result : rotateRight(result);
+    }
+
+    private static Branch rotateLeft(Branch node) {
+        Branch right = (Branch) node.right;
+        return new Branch(new Branch(node.left, right.left), right.right);
+    }
+
+    private static Branch rotateRight(Branch node) {
+        Branch left = (Branch) node.left;
+        return new Branch(left.left, new Branch(left.right, node.right));
+    }
+}
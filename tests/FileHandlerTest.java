@@ -1,6 +1,7 @@
 package tests;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
@@ -19,7 +20,7 @@ import org.junit.Test;
 public class FileHandlerTest {
 
     @Test
-    public void TestWriteFile() {
+    public void TestWriteFile() throws IOException {
         // arrange
         String content = "testing file";
         String fileName = "test_file";
@@ -40,7 +41,7 @@ public class FileHandlerTest {
     }
 
     @Test
-    public void TestReadFile() {
+    public void TestReadFile() throws IOException {
         // arrange
         String content = "testing file";
         String fileName = "test_file";
@@ -58,6 +59,35 @@ public class FileHandlerTest {
         }
     }
 
+    @Test
+    public void TestAppendToFile() throws IOException {
+        // arrange
+        String fileName = "test_file";
+        FileHandler.writeToFile(fileName, Marshaller.marshall("testing"));
+        Path path = Paths.get(fileName);
+        // act
+        FileHandler.appendToFile(fileName, Marshaller.marshall(" file"), 1234L);
+        // assert
+        InMemoryFile testFile = FileHandler.readFromFile(fileName);
+        assertEquals(testFile.getFileContent(), "testing file");
+        assertEquals(testFile.getTimeLastModified(), 1234L);
+        try {
+            Files.delete(path);
+        } catch (IOException e) {
+            System.out.println("Unable to delete file.");
+        }
+    }
+
+    @Test
+    public void TestAppendToMissingFileFails() {
+        // arrange
+        String fileName = "test_missing_file";
+        Path path = Paths.get(fileName);
+        // act & assert: the failure reaches the caller, and no file is created
+        assertThrows(IOException.class, () -> FileHandler.appendToFile(fileName, Marshaller.marshall("lost"), 1234L));
+        assertFalse(Files.exists(path));
+    }
+
     @Test
     public void TestUpdateFileContent() {
         // arrange
@@ -65,7 +95,7 @@ public class FileHandlerTest {
         /* Successful attempt at update */
         long curTimeModified = a.getTimeLastModified();
         // act
-        FileHandler.updateFileContent(a, 14, "updated ");
+        FileHandler.updateFileContent(a, 14, Marshaller.marshall("updated "));
         // assert
         assertEquals(a.getFileContent(), "This is a new updated file");
         assertTrue(a.getTimeLastModified() > curTimeModified);
@@ -73,7 +103,7 @@ public class FileHandlerTest {
         /* Failed attempt at read due to offset being too large */
         // act & assert
         Exception e = assertThrows(StringIndexOutOfBoundsException.class,
-                () -> FileHandler.updateFileContent(a, 100, ""));
+                () -> FileHandler.updateFileContent(a, 100, new byte[0]));
         String expectedMessage = "Offset provided exceeds the current file length";
         String actualMessage = e.getMessage();
         assertTrue(actualMessage.contains(expectedMessage));
@@ -85,9 +115,9 @@ public class FileHandlerTest {
         InMemoryFile a = new InMemoryFile("File1", "This is a new file");
         /* Successful attempt at read */
         // act
-        String message = FileHandler.getFileContent(a, 5, 13);
+        byte[] message = FileHandler.getFileContent(a, 5, 13);
         // assert
-        assertEquals(message, "is a new file");
+        assertEquals(Marshaller.unmarshallString(message), "is a new file");
 
         /* Failed attempt at read due to offset being too large */
         // act & assert
@@ -96,4 +126,25 @@ public class FileHandlerTest {
         String actualMessage = e.getMessage();
         assertTrue(actualMessage.contains(expectedMessage));
     }
+
+    @Test
+    public void TestOffsetsAreInBytes() throws IOException {
+        // arrange
+        String fileName = "test_file";
+        FileHandler.writeToFile(fileName, Marshaller.marshall("caf\u00e9 \u00fcber"));
+        Path path = Paths.get(fileName);
+        InMemoryFile a = FileHandler.readFromFile(fileName);
+        // act
+        FileHandler.updateFileContent(a, 6, Marshaller.marshall("\u00e0 "));
+        byte[] message = FileHandler.getFileContent(a, 6, 8);
+        // assert
+        assertEquals(a.getContentLength(), 14);
+        assertEquals(a.getFileContent(), "caf\u00e9 \u00e0 \u00fcber");
+        assertEquals(Marshaller.unmarshallString(message), "\u00e0 \u00fcber");
+        try {
+            Files.delete(path);
+        } catch (IOException e) {
+            System.out.println("Unable to delete file.");
+        }
+    }
 }
@@ -0,0 +1,106 @@
+package tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import src.utils.FileHandler;
+import src.utils.MappedFileReader;
+import src.utils.Marshaller;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+public class MappedFileReaderTest {
+    @Test
+    public void TestReadRange() throws IOException {
+        // arrange
+        String fileName = "test_mapped_file";
+        FileHandler.writeToFile(fileName, Marshaller.marshall("This is a new file"));
+        MappedFileReader reader = new MappedFileReader();
+        // act
+        ByteBuffer range = reader.read(fileName, 5, 13);
+        ByteBuffer clipped = reader.read(fileName, 14, 100);
+        // assert
+        assertTrue(range.isReadOnly());
+        assertArrayEquals(bytes(range), Marshaller.marshall("is a new file"));
+        assertArrayEquals(bytes(clipped), Marshaller.marshall("file"));
+
+        /* Failed attempt at read due to offset being too large */
+        // act & assert
+        assertThrows(StringIndexOutOfBoundsException.class, () -> reader.read(fileName, 100, 10));
+        Files.delete(Paths.get(fileName));
+    }
+
+    @Test
+    public void TestRemapAfterAppend() throws IOException {
+        // arrange
+        String fileName = "test_mapped_file";
+        FileHandler.writeToFile(fileName, Marshaller.marshall("testing"));
+        MappedFileReader reader = new MappedFileReader();
+        reader.read(fileName, 0, 100);
+        // act
+        FileHandler.appendToFile(fileName, Marshaller.marshall(" file"), System.currentTimeMillis());
+        ByteBuffer content = reader.read(fileName, 0, 100);
+        // assert
+        assertArrayEquals(bytes(content), Marshaller.marshall("testing file"));
+        Files.delete(Paths.get(fileName));
+        assertNull(reader.read(fileName, 0, 100));
+    }
+
+    @Test
+    public void TestLastModified() throws IOException {
+        // arrange
+        String fileName = "test_mapped_file";
+        FileHandler.writeToFile(fileName, Marshaller.marshall("testing"), 1234L);
+        MappedFileReader reader = new MappedFileReader();
+        // act
+        long lastModified = reader.lastModified(fileName);
+        // assert
+        assertEquals(lastModified, 1234L);
+        Files.delete(Paths.get(fileName));
+        assertEquals(reader.lastModified(fileName), -1L);
+    }
+
+    @Test
+    public void TestConditionalReadOfEmptyFile() throws IOException {
+        // arrange
+        String fileName = "test_mapped_file";
+        Files.write(Paths.get(fileName), new byte[0]);
+        MappedFileReader reader = new MappedFileReader();
+        // act
+        long lastModified = reader.lastModified(fileName);
+        boolean current = reader.isCurrent(fileName, 0L);
+        ByteBuffer range = reader.read(fileName, 0, 100);
+        // assert
+        assertEquals(lastModified, -1L);
+        assertFalse(current);
+        assertEquals(range.remaining(), 0);
+        Files.delete(Paths.get(fileName));
+    }
+
+    @Test
+    public void TestIsCurrent() throws IOException {
+        // arrange
+        String fileName = "test_mapped_file";
+        FileHandler.writeToFile(fileName, Marshaller.marshall("testing"), 1234L);
+        MappedFileReader reader = new MappedFileReader();
+        // act & assert
+        assertTrue(reader.isCurrent(fileName, 1234L));
+        assertFalse(reader.isCurrent(fileName, 1233L));
+        Files.delete(Paths.get(fileName));
+        assertFalse(reader.isCurrent(fileName, -1L));
+    }
+
+    private static byte[] bytes(ByteBuffer range) {
+        byte[] bytes = new byte[range.remaining()];
+        range.get(bytes);
+        return bytes;
+    }
+}
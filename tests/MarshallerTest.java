@@ -1,8 +1,10 @@
 package tests;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import src.utils.Marshaller;
 import src.utils.InMemoryFile;
+import java.nio.ByteBuffer;
 
 import org.junit.Test;
 
@@ -70,4 +72,45 @@ public class MarshallerTest {
         assertEquals(a.getFileContent(), aUnmarshalled.getFileContent());
         assertEquals(a.getTimeLastModified(), aUnmarshalled.getTimeLastModified());
     }
+
+    @Test
+    public void TestMarshallIntoBuffer() {
+        for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(256), ByteBuffer.allocateDirect(256) }) {
+            // arrange
+            InMemoryFile file = new InMemoryFile("File1", "caf\u00e9 file");
+            buffer.position(3); // start at an offset into the buffer
+            // act
+            Marshaller.marshall(-100, buffer);
+            Marshaller.marshall(1234567890123L, buffer);
+            Marshaller.marshall("\u00fcber", buffer);
+            Marshaller.marshall(file, buffer);
+            int end = buffer.position();
+            buffer.flip().position(3);
+            // assert
+            assertEquals(Marshaller.unmarshallInteger(buffer), -100);
+            assertEquals(Marshaller.unmarshallLong(buffer), 1234567890123L);
+            assertEquals(Marshaller.unmarshallInteger(buffer, buffer.position()), Marshaller.encodedLength("\u00fcber"));
+            assertEquals(Marshaller.unmarshallString(buffer), "\u00fcber");
+            InMemoryFile unmarshalled = Marshaller.unmarshallFile(buffer);
+            assertEquals(unmarshalled.getFileName(), file.getFileName());
+            assertEquals(unmarshalled.getFileContent(), file.getFileContent());
+            assertEquals(unmarshalled.getTimeLastModified(), file.getTimeLastModified());
+            assertEquals(buffer.position(), end);
+        }
+    }
+
+    @Test
+    public void TestMarshallFileMatchesBuffer() {
+        // arrange
+        InMemoryFile a = new InMemoryFile("File1", "This is a new file");
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        // act
+        Marshaller.marshall(a, buffer);
+        byte[] aMarshalled = Marshaller.marshall(a);
+        // assert
+        assertEquals(buffer.position(), aMarshalled.length);
+        byte[] written = new byte[buffer.position()];
+        buffer.flip().get(written);
+        assertArrayEquals(written, aMarshalled);
+    }
 }
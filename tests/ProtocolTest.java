@@ -0,0 +1,194 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import src.utils.Marshaller;
+import src.utils.Protocol;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ProtocolTest {
+    @Test
+    public void TestEncodeRequest() {
+        // arrange
+        byte[] payload = Marshaller.marshall("caf\u00e9");
+        // act
+        ByteBuffer request = ByteBuffer.wrap(Protocol.encodeRequest(Protocol.OP_INSERT, -42L, 7L, 5, 0,
+                "file\u00e9", payload));
+        // assert
+        assertTrue(Protocol.isVersioned(request));
+        assertEquals(request.get(Protocol.VERSION_OFFSET), Protocol.VERSION);
+        assertEquals(request.get(Protocol.OPERATION_OFFSET), Protocol.OP_INSERT);
+        assertEquals(request.getLong(Protocol.CLIENT_ID_OFFSET), -42L);
+        assertEquals(request.getLong(Protocol.SEQUENCE_OFFSET), 7L);
+        assertEquals(request.getInt(Protocol.OFFSET_OFFSET), 5);
+        int nameLength = request.getShort(Protocol.NAME_LENGTH_OFFSET);
+        assertEquals(nameLength, 6);
+        request.position(Protocol.NAME_OFFSET);
+        assertEquals(Marshaller.unmarshallString(request, nameLength), "file\u00e9");
+        assertEquals(request.remaining(), payload.length);
+    }
+
+    @Test
+    public void TestEncodeReply() {
+        // arrange
+        byte[] body = Marshaller.marshall("File does not exist.");
+        // act
+        byte[] reply = Protocol.encodeReply(Protocol.OP_READ, (byte) 0, Protocol.STATUS_NOT_FOUND, 1L, 2L, body);
+        // assert
+        ByteBuffer buffer = ByteBuffer.wrap(reply);
+        assertTrue(Protocol.isVersioned(buffer));
+        assertEquals(buffer.get(Protocol.STATUS_OFFSET), Protocol.STATUS_NOT_FOUND);
+        assertEquals(buffer.getLong(Protocol.SEQUENCE_OFFSET), 2L);
+        assertEquals(Marshaller.unmarshallString(Arrays.copyOfRange(reply, Protocol.HEADER_BYTES, reply.length)),
+                "File does not exist.");
+    }
+
+    @Test
+    public void TestLegacyRequestIsNotVersioned() {
+        // arrange
+        String requestId = "3f1d2c4e-5b6a-4f7e-8d9c-0a1b2c3d4e5f_1";
+        ByteBuffer request = ByteBuffer.allocate(256);
+        Marshaller.marshall(requestId, request);
+        request.put((byte) 1);
+        Marshaller.marshall("file1", request);
+        Marshaller.marshall(0, request);
+        Marshaller.marshall("10", request);
+        request.flip();
+        // act & assert
+        assertFalse(Protocol.isVersioned(request));
+    }
+
+    @Test
+    public void TestBatchRoundTrip() {
+        // arrange
+        List<Protocol.Operation> operations = List.of(
+                new Protocol.Operation(Protocol.OP_READ, 0, 5, "file1", null),
+                new Protocol.Operation(Protocol.OP_APPEND, 0, 0, "file2", Marshaller.marshall("!!")));
+        List<Protocol.Result> results = List.of(
+                new Protocol.Result(Protocol.OP_READ, Protocol.STATUS_OK, Marshaller.marshall("Hello")),
+                new Protocol.Result(Protocol.OP_APPEND, Protocol.STATUS_NOT_FOUND, Marshaller.marshall("missing")));
+        // act
+        ByteBuffer request = ByteBuffer.wrap(Protocol.encodeBatchRequest(1L, 9L, operations));
+        List<Protocol.Result> decoded = Protocol
+                .decodeBatchReplyBody(ByteBuffer.wrap(Protocol.encodeBatchReplyBody(results)));
+        // assert
+        assertEquals(request.get(Protocol.OPERATION_OFFSET), Protocol.OP_BATCH);
+        assertEquals(request.getShort(Protocol.HEADER_BYTES), 2);
+        assertEquals(request.get(Protocol.HEADER_BYTES + Short.BYTES), Protocol.OP_READ);
+        assertEquals(decoded.size(), 2);
+        assertEquals(decoded.get(1).operationCode, Protocol.OP_APPEND);
+        assertEquals(decoded.get(1).status, Protocol.STATUS_NOT_FOUND);
+        assertEquals(Marshaller.unmarshallString(decoded.get(0).body), "Hello");
+    }
+
+    @Test
+    public void TestChunksCoverMessage() {
+        // arrange
+        byte[] message = Protocol.encodeReply(Protocol.OP_READ, (byte) 0, Protocol.STATUS_OK, 3L, 9L, new byte[1000]);
+        Arrays.fill(message, Protocol.HEADER_BYTES, message.length, (byte) 'x');
+        int chunkSize = 300;
+        byte[] reassembled = new byte[message.length];
+        // act
+        int count = Protocol.chunkCount(message.length, chunkSize);
+        for (int i = 0; i < count; i++) {
+            ByteBuffer chunk = ByteBuffer.wrap(Protocol.encodeChunk(message, 11, i, chunkSize));
+            // assert
+            assertTrue(Protocol.isVersioned(chunk));
+            assertEquals(chunk.get(Protocol.FLAGS_OFFSET), Protocol.FLAG_CHUNKED);
+            assertEquals(chunk.getLong(Protocol.SEQUENCE_OFFSET), 9L);
+            assertEquals(chunk.getInt(Protocol.CHUNK_TRANSFER_OFFSET), 11);
+            assertEquals(chunk.getInt(Protocol.CHUNK_INDEX_OFFSET), i);
+            assertEquals(chunk.getInt(Protocol.CHUNK_COUNT_OFFSET), count);
+            assertEquals(chunk.getInt(Protocol.CHUNK_TOTAL_OFFSET), message.length);
+            chunk.get(Protocol.CHUNK_DATA_OFFSET, reassembled, i * chunkSize, chunk.limit() - Protocol.CHUNK_DATA_OFFSET);
+        }
+        assertEquals(count, 4);
+        assertTrue(Arrays.equals(reassembled, message));
+    }
+
+    @Test
+    public void TestEncodeAck() {
+        // act
+        ByteBuffer ack = ByteBuffer.wrap(Protocol.encodeAck(3L, 9L, 11, 5, 0b101L));
+        // assert
+        assertEquals(ack.limit(), Protocol.ACK_BYTES);
+        assertEquals(ack.get(Protocol.OPERATION_OFFSET), Protocol.OP_ACK);
+        assertEquals(ack.getInt(Protocol.ACK_TRANSFER_OFFSET), 11);
+        assertEquals(ack.getInt(Protocol.ACK_RECEIVED_OFFSET), 5);
+        assertEquals(ack.getLong(Protocol.ACK_SELECTIVE_OFFSET), 0b101L);
+    }
+
+    @Test
+    public void TestUpdateRoundTrip() {
+        // arrange
+        Protocol.Update delta = Protocol.Update.delta(Protocol.OP_APPEND, 100L, 101L, 5, "!".getBytes());
+        // act
+        Protocol.Update decoded = Protocol.decodeUpdateBody(ByteBuffer.wrap(Protocol.encodeUpdateBody(delta)));
+        // assert
+        assertFalse(decoded.isSnapshot());
+        assertEquals(decoded.operationCode, Protocol.OP_APPEND);
+        assertEquals(decoded.baseVersion, 100L);
+        assertEquals(decoded.version, 101L);
+        assertEquals(decoded.offset, 5);
+        assertEquals(new String(decoded.data), "!");
+    }
+
+    @Test
+    public void TestDeltaInsertsAtOffset() {
+        // arrange
+        byte[] content = "Hello World".getBytes();
+        Protocol.Update delta = Protocol.Update.delta(Protocol.OP_INSERT, 1L, 2L, 5, ",".getBytes());
+        Protocol.Update snapshot = Protocol.Update.snapshot(3L, "Bye".getBytes());
+        // act
+        byte[] updated = delta.applyTo(content);
+        // assert
+        assertEquals(new String(updated), "Hello, World");
+        assertEquals(new String(snapshot.applyTo(updated)), "Bye");
+    }
+
+    @Test
+    public void TestReaddress() {
+        // arrange
+        byte[] message = Protocol.encodeReply(Protocol.OP_MONITOR, Protocol.FLAG_NOTIFICATION, Protocol.STATUS_OK,
+                0L, 0L, new byte[] { 1, 2 });
+        // act
+        Protocol.readdress(message, 3L, 9L);
+        // assert
+        ByteBuffer readdressed = ByteBuffer.wrap(message);
+        assertEquals(readdressed.getLong(Protocol.CLIENT_ID_OFFSET), 3L);
+        assertEquals(readdressed.getLong(Protocol.SEQUENCE_OFFSET), 9L);
+        assertEquals(readdressed.get(Protocol.FLAGS_OFFSET), Protocol.FLAG_NOTIFICATION);
+        assertEquals(readdressed.get(Protocol.HEADER_BYTES + 1), 2);
+    }
+
+    @Test
+    public void TestGrantLease() {
+        // arrange
+        byte[] reply = Protocol.encodeReply(Protocol.OP_READ_IF_MODIFIED, (byte) 0, Protocol.STATUS_OK, 3L, 9L,
+                new byte[8]);
+        // act
+        int before = Protocol.leaseSeconds(ByteBuffer.wrap(reply));
+        Protocol.grantLease(reply, 40000);
+        // assert
+        assertEquals(before, 0);
+        assertEquals(Protocol.leaseSeconds(ByteBuffer.wrap(reply)), 40000);
+        assertEquals(ByteBuffer.wrap(reply).getLong(Protocol.SEQUENCE_OFFSET), 9L);
+    }
+
+    @Test
+    public void TestEncodeInvalidation() {
+        // act
+        ByteBuffer invalidation = ByteBuffer.wrap(Protocol.encodeInvalidation(3L, 9L, 1234L, "file1"));
+        // assert
+        assertEquals(invalidation.get(Protocol.OPERATION_OFFSET), Protocol.OP_INVALIDATE);
+        assertEquals(invalidation.get(Protocol.FLAGS_OFFSET), Protocol.FLAG_NOTIFICATION);
+        assertEquals(invalidation.getLong(Protocol.HEADER_BYTES), 1234L);
+        invalidation.position(Protocol.HEADER_BYTES + Long.BYTES);
+        assertEquals(Marshaller.unmarshallString(invalidation, invalidation.remaining()), "file1");
+    }
+}
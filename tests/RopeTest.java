@@ -0,0 +1,58 @@
+package tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import src.utils.Marshaller;
+import src.utils.Rope;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RopeTest {
+    @Test
+    public void TestInsert() {
+        // arrange
+        Rope a = new Rope(Marshaller.marshall("This is a new file"));
+        // act
+        Rope b = a.insert(14, Marshaller.marshall("updated "));
+        // assert
+        assertArrayEquals(b.toBytes(), Marshaller.marshall("This is a new updated file"));
+        assertEquals(b.length(), 26);
+        assertArrayEquals(a.toBytes(), Marshaller.marshall("This is a new file"));
+
+        /* Failed attempt at insert due to offset being too large */
+        // act & assert
+        assertThrows(StringIndexOutOfBoundsException.class, () -> a.insert(100, Marshaller.marshall("x")));
+    }
+
+    @Test
+    public void TestRandomInsertsMatchArrayCopy() {
+        // arrange
+        Random random = new Random(4013);
+        Rope rope = new Rope(new byte[0]);
+        byte[] expected = new byte[0];
+        // act
+        for (int i = 0; i < 5000; i++) {
+            int offset = random.nextInt(expected.length + 1);
+            byte[] content = new byte[1 + (i % 50 == 0 ? 1500 : random.nextInt(16))];
+            random.nextBytes(content);
+            rope = rope.insert(offset, content);
+            ByteArrayOutputStream spliced = new ByteArrayOutputStream();
+            spliced.write(expected, 0, offset);
+            spliced.write(content, 0, content.length);
+            spliced.write(expected, offset, expected.length - offset);
+            expected = spliced.toByteArray();
+        }
+        // assert
+        assertEquals(expected.length, rope.length());
+        assertArrayEquals(expected, rope.toBytes());
+        for (int i = 0; i < 100; i++) {
+            int start = random.nextInt(expected.length);
+            int end = start + random.nextInt(expected.length - start + 1);
+            assertArrayEquals(Arrays.copyOfRange(expected, start, end), rope.slice(start, end));
+        }
+    }
+}
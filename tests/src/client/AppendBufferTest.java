@@ -0,0 +1,150 @@
+package src.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import src.utils.Protocol;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AppendBufferTest {
+    private static final long NEVER = 60000; // a flush delay no test waits for
+
+    private FakeServer fake;
+    private AsyncClient server;
+    private final List<String> flushed = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        fake = new FakeServer();
+        fake.put("file1", new byte[0]);
+        fake.put("file2", new byte[0]);
+        server = new AsyncClient("127.0.0.1", fake.port());
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        fake.close();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void TestAppendsBufferedIntoOneFlush() throws Exception {
+        // arrange
+        AppendBuffer buffer = new AppendBuffer(server, NEVER, flushed::add);
+        buffer.append("file1", bytes("a"));
+        buffer.append("file1", bytes("b"));
+        buffer.append("file2", bytes("c"));
+        assertEquals(0, fake.requests().size());
+        // act
+        buffer.flush("file1").get(5, TimeUnit.SECONDS);
+        // assert
+        List<FakeServer.Received> requests = fake.requests();
+        assertEquals(1, requests.size());
+        assertEquals(Protocol.OP_APPEND, requests.get(0).operationCode);
+        assertArrayEquals(bytes("ab"), fake.file("file1"));
+        assertEquals(List.of("file1"), flushed);
+        buffer.close();
+        assertArrayEquals(bytes("c"), fake.file("file2"));
+    }
+
+    @Test
+    public void TestFlushesOfFileSentInOrder() throws Exception {
+        // arrange
+        AppendBuffer buffer = new AppendBuffer(server, NEVER, flushed::add);
+        fake.hold();
+        buffer.append("file1", bytes("first "));
+        CompletableFuture<Void> first = buffer.flush("file1");
+        buffer.append("file1", bytes("second"));
+        CompletableFuture<Void> second = buffer.flush("file1");
+        // act & assert: the second flush waits for the first to be answered
+        fake.awaitRequests(1);
+        Thread.sleep(100);
+        assertEquals(1, fake.requests().size());
+        fake.releaseHeld();
+        first.get(5, TimeUnit.SECONDS);
+        List<FakeServer.Received> requests = fake.awaitRequests(2);
+        assertArrayEquals(bytes("second"), requests.get(1).content);
+        // a flush completes only once it and the ones before it are answered
+        Thread.sleep(100);
+        assertFalse(second.isDone());
+        fake.release();
+        second.get(5, TimeUnit.SECONDS);
+        assertArrayEquals(bytes("first second"), fake.file("file1"));
+        assertEquals(List.of("file1", "file1"), flushed);
+    }
+
+    @Test
+    public void TestFlushWithNothingBufferedWaitsForEarlierFlush() throws Exception {
+        // arrange
+        AppendBuffer buffer = new AppendBuffer(server, NEVER, flushed::add);
+        fake.hold();
+        buffer.append("file1", bytes("a"));
+        buffer.flush("file1");
+        fake.awaitRequests(1);
+        // act
+        CompletableFuture<Void> flush = buffer.flush("file1");
+        Thread.sleep(100);
+        // assert
+        assertFalse(flush.isDone());
+        fake.release();
+        flush.get(5, TimeUnit.SECONDS);
+        assertEquals(1, fake.requests().size());
+    }
+
+    @Test
+    public void TestFlushedOnceThresholdReached() throws Exception {
+        // arrange
+        AppendBuffer buffer = new AppendBuffer(server, NEVER, flushed::add);
+        buffer.append("file1", new byte[AppendBuffer.FLUSH_BYTES - 1]);
+        Thread.sleep(100);
+        assertEquals(0, fake.requests().size());
+        // act
+        buffer.append("file1", new byte[1]);
+        // assert
+        List<FakeServer.Received> requests = fake.awaitRequests(1);
+        assertEquals(1, requests.size());
+        assertEquals(AppendBuffer.FLUSH_BYTES, requests.get(0).content.length);
+        buffer.flush("file1").get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void TestSplitsFlushesThatWouldNotFitOneRequest() throws Exception {
+        // arrange
+        AppendBuffer buffer = new AppendBuffer(server, NEVER, flushed::add);
+        buffer.append("file1", new byte[5000]);
+        // act: both together would exceed the largest flush
+        buffer.append("file1", new byte[58000]);
+        // assert: what was buffered is sent first, and the rest on its own
+        List<FakeServer.Received> requests = fake.awaitRequests(2);
+        assertEquals(2, requests.size());
+        assertEquals(5000, requests.get(0).content.length);
+        assertEquals(58000, requests.get(1).content.length);
+        buffer.flush("file1").get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void TestFlushedAfterDelay() throws Exception {
+        // arrange
+        AppendBuffer buffer = new AppendBuffer(server, 50, flushed::add);
+        // act
+        buffer.append("file1", bytes("late"));
+        // assert
+        assertEquals(1, fake.awaitRequests(1).size());
+        buffer.flush("file1").get(5, TimeUnit.SECONDS);
+        assertArrayEquals(bytes("late"), fake.file("file1"));
+        assertTrue(flushed.contains("file1"));
+    }
+}
@@ -0,0 +1,72 @@
+package src.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import src.utils.Protocol;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncClientTest {
+    private FakeServer fake;
+    private AsyncClient server;
+
+    @Before
+    public void setUp() throws Exception {
+        fake = new FakeServer();
+        fake.put("file1", new byte[] { 1, 2, 3 });
+        server = new AsyncClient("127.0.0.1", fake.port());
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        fake.close();
+    }
+
+    @Test
+    public void TestReplyCompletesCall() {
+        // act
+        AsyncClient.Response response = server.read("file1", 1, 2).join();
+        // assert
+        assertTrue(response.isOk());
+        assertEquals(2, response.body.length);
+        assertEquals(3, response.body[1]);
+    }
+
+    @Test
+    public void TestStaleReplyFailsWithOutcomeUnknown() {
+        // arrange
+        fake.answerWith(Protocol.STATUS_STALE);
+        // act
+        Throwable failure = null;
+        try {
+            server.append("file1", new byte[] { 4 }).join();
+        } catch (CompletionException e) {
+            failure = e.getCause();
+        }
+        // assert: the append may already have run, so the caller must not take it as a reply to retry
+        assertTrue(failure instanceof AsyncClient.OutcomeUnknownException);
+    }
+
+    @Test
+    public void TestRequestsCountTheCallsBeforeThem() throws Exception {
+        // arrange
+        fake.hold();
+        // act
+        CompletableFuture<AsyncClient.Response> first = server.read("file1", 0, 1);
+        CompletableFuture<AsyncClient.Response> second = server.read("file1", 1, 1);
+        CompletableFuture<AsyncClient.Response> third = server.read("file1", 2, 1);
+        List<FakeServer.Received> requests = fake.awaitRequests(3);
+        fake.release();
+        // assert: each request asks the server to keep the replies from the oldest one still waiting
+        assertEquals(0, requests.get(0).outstanding);
+        assertEquals(1, requests.get(1).outstanding);
+        assertEquals(2, requests.get(2).outstanding);
+        assertTrue(first.join().isOk() && second.join().isOk() && third.join().isOk());
+    }
+}
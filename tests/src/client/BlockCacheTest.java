@@ -0,0 +1,147 @@
+package src.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class BlockCacheTest {
+    private static final int BLOCK = BlockCache.BLOCK_SIZE;
+    private static final long BUDGET = 1024 * 1024;
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+
+    @Test
+    public void TestRangeAcrossBlocks() {
+        // arrange
+        BlockCache cache = new BlockCache(BUDGET);
+        byte[] content = content(3 * BLOCK);
+        // act
+        cache.put("file1", 1, 0, content, content.length);
+        // assert
+        assertArrayEquals(Arrays.copyOfRange(content, BLOCK - 100, BLOCK + 100), cache.get("file1", BLOCK - 100, 200));
+        assertArrayEquals(Arrays.copyOfRange(content, 10, 3 * BLOCK - 10), cache.get("file1", 10, 3 * BLOCK - 20));
+        assertNull(cache.get("file1", 2 * BLOCK, BLOCK + 1)); // the block after is not cached
+        assertNull(cache.get("file2", 0, 10));
+    }
+
+    @Test
+    public void TestMissingTrimsCachedBlocks() {
+        // arrange: blocks 0 and 2 are cached
+        BlockCache cache = new BlockCache(BUDGET);
+        cache.put("file1", 1, 0, content(BLOCK), BLOCK);
+        cache.put("file1", 1, 2 * BLOCK, content(BLOCK), BLOCK);
+        // act & assert
+        assertArrayEquals(new int[] { BLOCK, 4 * BLOCK }, cache.missing("file1", 10, 4 * BLOCK - 20));
+        assertArrayEquals(new int[] { BLOCK, 2 * BLOCK }, cache.missing("file1", 0, 3 * BLOCK));
+        assertArrayEquals(new int[] { 0, 2 * BLOCK }, cache.missing("file2", 100, BLOCK));
+    }
+
+    @Test
+    public void TestNewVersionDropsOlderBlocks() {
+        // arrange
+        BlockCache cache = new BlockCache(BUDGET);
+        cache.put("file1", 1, 0, content(2 * BLOCK), 2 * BLOCK);
+        // act
+        cache.put("file1", 2, 2 * BLOCK, content(BLOCK), BLOCK);
+        // assert
+        assertEquals(2, cache.version("file1"));
+        assertNull(cache.get("file1", 0, 10));
+        assertArrayEquals(new int[] { 0, 2 * BLOCK }, cache.missing("file1", 0, 3 * BLOCK));
+        assertEquals(10, cache.get("file1", 2 * BLOCK, 10).length);
+    }
+
+    @Test
+    public void TestShortReadSetsLength() {
+        // arrange
+        BlockCache cache = new BlockCache(BUDGET);
+        byte[] content = content(BLOCK + 904);
+        // act: fewer bytes than asked for means the read reached the end of the file
+        cache.put("file1", 1, 0, content, 2 * BLOCK);
+        // assert
+        assertArrayEquals(Arrays.copyOfRange(content, BLOCK, content.length), cache.get("file1", BLOCK, BLOCK));
+        assertArrayEquals(new byte[0], cache.get("file1", content.length, 10));
+        assertFalse(cache.beyondEnd("file1", content.length));
+        assertTrue(cache.beyondEnd("file1", content.length + 1));
+        assertNull(cache.get("file1", content.length + 1, 10));
+        assertArrayEquals(new int[] { BLOCK, 2 * BLOCK }, cache.missing("file1", 0, 5 * BLOCK));
+    }
+
+    @Test
+    public void TestEvictsLeastRecentlyUsedBlocks() {
+        // arrange
+        BlockCache cache = new BlockCache(3 * BLOCK);
+        cache.put("file1", 1, 0, content(3 * BLOCK), 3 * BLOCK);
+        cache.get("file1", 0, 10); // block 1 is now the least recently used
+        // act
+        cache.put("file2", 1, 0, content(BLOCK), BLOCK);
+        // assert
+        assertNull(cache.get("file1", BLOCK, 10));
+        assertEquals(10, cache.get("file1", 0, 10).length);
+        assertEquals(10, cache.get("file1", 2 * BLOCK, 10).length);
+        assertEquals(10, cache.get("file2", 0, 10).length);
+        assertTrue(cache.toString().contains("1 evictions, 3 blocks, " + 3 * BLOCK + " of " + 3 * BLOCK + " bytes"));
+    }
+
+    @Test
+    public void TestLateReplyAfterChangeIsNotTrusted() {
+        // arrange
+        BlockCache cache = new BlockCache(BUDGET);
+        cache.put("file1", 1, 0, content(BLOCK), BLOCK);
+        cache.leased("file1", 1, System.currentTimeMillis() + 60000);
+        cache.invalidate("file1", 2);
+        // act: a reply sent before the change arrives after it
+        cache.put("file1", 1, 0, content(BLOCK), BLOCK);
+        cache.leased("file1", 1, System.currentTimeMillis() + 60000);
+        // assert
+        assertFalse(cache.isFresh("file1", 60000));
+        assertEquals(1, cache.changes());
+    }
+
+    @Test
+    public void TestChangeIsForgottenOnceCached() {
+        // arrange
+        BlockCache cache = new BlockCache(BUDGET);
+        cache.put("file1", 1, 0, content(BLOCK), BLOCK);
+        cache.leased("file1", 1, System.currentTimeMillis() + 60000);
+        cache.invalidate("file1", 2);
+        // act
+        cache.put("file1", 2, 0, content(BLOCK), BLOCK);
+        // assert
+        assertTrue(cache.isFresh("file1", 60000));
+        assertEquals(0, cache.changes());
+
+        /* A late reply replacing the newer version brings the change back */
+        // act
+        cache.put("file1", 1, 0, content(BLOCK), BLOCK);
+        // assert
+        assertFalse(cache.isFresh("file1", 60000));
+        assertEquals(1, cache.changes());
+    }
+
+    @Test
+    public void TestChangeIsForgottenOnceLeasesRunOut() throws InterruptedException {
+        // arrange
+        BlockCache cache = new BlockCache(BUDGET);
+        cache.put("file1", 1, 0, content(BLOCK), BLOCK);
+        cache.leased("file1", 1, System.currentTimeMillis() + 50);
+        cache.invalidate("file1", 2);
+        // act
+        Thread.sleep(150);
+        cache.invalidate("file2", 1);
+        // assert: only the change to file2 is left
+        assertEquals(1, cache.changes());
+        cache.put("file1", 1, 0, content(BLOCK), BLOCK);
+        assertTrue(cache.isFresh("file1", 60000));
+    }
+}
@@ -0,0 +1,87 @@
+package src.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import src.utils.Protocol;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class ChunkAssemblerTest {
+    private static final int TRANSFER_ID = 3;
+    private static final int CHUNK_SIZE = 16;
+
+    // a framed reply whose body has the given length
+    private static byte[] message(int bodyLength) {
+        byte[] body = new byte[bodyLength];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        return Protocol.encodeReply(Protocol.OP_READ, (byte) 0, Protocol.STATUS_OK, 1, 1, body);
+    }
+
+    private static ByteBuffer chunk(byte[] message, int index) {
+        return ByteBuffer.wrap(Protocol.encodeChunk(message, TRANSFER_ID, index, CHUNK_SIZE));
+    }
+
+    @Test
+    public void TestOutOfOrderWithShortLastChunk() {
+        // arrange: 69 bytes make four full chunks and one of 5 bytes
+        byte[] message = message(45);
+        ChunkAssembler assembler = new ChunkAssembler(TRANSFER_ID, 5, message.length);
+        // act
+        for (int index : new int[] { 4, 2, 0, 3, 1 }) {
+            assertFalse(assembler.isComplete());
+            assembler.add(chunk(message, index));
+        }
+        // assert
+        assertTrue(assembler.isComplete());
+        assertEquals(5, assembler.received());
+        assertArrayEquals(message, assembler.message());
+    }
+
+    @Test
+    public void TestDuplicateChunksIgnored() {
+        // arrange
+        byte[] message = message(40);
+        ChunkAssembler assembler = new ChunkAssembler(TRANSFER_ID, 4, message.length);
+        // act
+        assembler.add(chunk(message, 1));
+        assembler.add(chunk(message, 1));
+        assembler.add(chunk(message, 0));
+        assembler.add(chunk(message, 2));
+        // assert: the duplicate did not count towards the chunks still to come
+        assertFalse(assembler.isComplete());
+        assertEquals(3, assembler.received());
+        assembler.add(chunk(message, 3));
+        assertTrue(assembler.isComplete());
+        assertArrayEquals(message, assembler.message());
+    }
+
+    @Test
+    public void TestSelectiveAckBits() {
+        // arrange
+        byte[] message = message(80); // 104 bytes in 7 chunks
+        ChunkAssembler assembler = new ChunkAssembler(TRANSFER_ID, 7, message.length);
+        // act
+        for (int index : new int[] { 0, 2, 4, 5 }) {
+            assembler.add(chunk(message, index));
+        }
+        // assert: bit i stands for chunk received() + 1 + i
+        assertEquals(1, assembler.received());
+        assertEquals(0b1101L, assembler.selective());
+        assembler.add(chunk(message, 1));
+        assertEquals(3, assembler.received());
+        assertEquals(0b11L, assembler.selective());
+    }
+
+    @Test
+    public void TestInvalidTransferRejected() {
+        // act & assert
+        assertThrows(IllegalArgumentException.class, () -> new ChunkAssembler(TRANSFER_ID, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new ChunkAssembler(TRANSFER_ID, 5, 4));
+    }
+}
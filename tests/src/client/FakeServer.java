@@ -0,0 +1,179 @@
+package src.client;
+
+import src.utils.Marshaller;
+import src.utils.Protocol;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// a stand-in for the server in client tests. it answers reads, conditional reads and appends
+// against files held in memory at version 1, and records every request it has not seen before.
+// while holding, replies are kept back until released, so that tests can control what is in flight
+class FakeServer implements AutoCloseable {
+    static final long VERSION = 1;
+
+    // a request as it arrived
+    static final class Received {
+        final byte operationCode;
+        final int outstanding;
+        final int offset;
+        final int length;
+        final String filename;
+        final byte[] content;
+
+        Received(ByteBuffer datagram) {
+            operationCode = datagram.get(Protocol.OPERATION_OFFSET);
+            outstanding = Short.toUnsignedInt(datagram.getShort(Protocol.OUTSTANDING_OFFSET));
+            offset = datagram.getInt(Protocol.OFFSET_OFFSET);
+            length = datagram.getInt(Protocol.LENGTH_OFFSET);
+            int nameLength = datagram.getShort(Protocol.NAME_LENGTH_OFFSET);
+            datagram.position(Protocol.NAME_OFFSET);
+            filename = Marshaller.unmarshallString(datagram, nameLength);
+            content = new byte[datagram.remaining()];
+            datagram.get(content);
+        }
+    }
+
+    private final DatagramSocket socket;
+    private final Thread receiver;
+    private final Map<String, byte[]> files = new HashMap<>();
+    private final Map<Long, byte[]> replies = new HashMap<>(); // by sequence, once sent
+    private final List<Long> seen = new ArrayList<>();
+    private final List<Received> received = new ArrayList<>();
+    private final List<DatagramPacket> held = new ArrayList<>();
+    private boolean holding;
+    private byte status = Protocol.STATUS_OK;
+
+    FakeServer() throws IOException {
+        socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        receiver = new Thread(this::receiveLoop, "fake-server");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    int port() {
+        return socket.getLocalPort();
+    }
+
+    synchronized void put(String filename, byte[] content) {
+        files.put(filename, content);
+    }
+
+    synchronized byte[] file(String filename) {
+        return files.get(filename);
+    }
+
+    // answers later requests with the given status
+    synchronized void answerWith(byte status) {
+        this.status = status;
+    }
+
+    // keeps replies back from now on
+    synchronized void hold() {
+        holding = true;
+    }
+
+    // sends the replies held so far, and keeps holding later ones
+    synchronized void releaseHeld() throws IOException {
+        for (DatagramPacket reply : held) {
+            socket.send(reply);
+        }
+        held.clear();
+    }
+
+    // sends the replies held so far, and answers at once from now on
+    synchronized void release() throws IOException {
+        holding = false;
+        releaseHeld();
+    }
+
+    // waits until the given number of distinct requests has arrived, and returns them all
+    synchronized List<Received> awaitRequests(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.size() < count && System.currentTimeMillis() < deadline) {
+            wait(deadline - System.currentTimeMillis());
+        }
+        return new ArrayList<>(received);
+    }
+
+    synchronized List<Received> requests() {
+        return new ArrayList<>(received);
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+        try {
+            receiver.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[65535];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!socket.isClosed()) {
+            try {
+                socket.receive(packet);
+                handle(ByteBuffer.wrap(Arrays.copyOf(buffer, packet.getLength())), packet.getSocketAddress());
+            } catch (IOException e) {
+                break; // the socket was closed
+            }
+        }
+    }
+
+    // a resent request is answered with the reply to its first copy, once that has been released
+    private synchronized void handle(ByteBuffer datagram, SocketAddress client) throws IOException {
+        long sequence = datagram.getLong(Protocol.SEQUENCE_OFFSET);
+        if (seen.contains(sequence)) {
+            byte[] reply = replies.get(sequence);
+            if (reply != null && !holding) {
+                socket.send(new DatagramPacket(reply, reply.length, client));
+            }
+            return;
+        }
+        seen.add(sequence);
+        Received request = new Received(datagram);
+        received.add(request);
+        notifyAll();
+        byte[] reply = Protocol.encodeReply(request.operationCode, (byte) 0, status,
+                datagram.getLong(Protocol.CLIENT_ID_OFFSET), sequence, answer(request));
+        replies.put(sequence, reply);
+        DatagramPacket packet = new DatagramPacket(reply, reply.length, client);
+        if (holding) {
+            held.add(packet);
+        } else {
+            socket.send(packet);
+        }
+    }
+
+    private byte[] answer(Received request) {
+        byte[] file = files.getOrDefault(request.filename, new byte[0]);
+        switch (request.operationCode) {
+            case Protocol.OP_APPEND:
+                byte[] appended = Arrays.copyOf(file, file.length + request.content.length);
+                System.arraycopy(request.content, 0, appended, file.length, request.content.length);
+                files.put(request.filename, appended);
+                return Marshaller.marshall("Content appended successfully");
+            case Protocol.OP_READ_IF_MODIFIED:
+                byte[] range = range(file, request.offset, request.length);
+                return ByteBuffer.allocate(Long.BYTES + range.length).putLong(VERSION).put(range).array();
+            default:
+                return range(file, request.offset, request.length);
+        }
+    }
+
+    private static byte[] range(byte[] file, int offset, int length) {
+        int start = Math.min(offset, file.length);
+        return Arrays.copyOfRange(file, start, Math.min(file.length, start + length));
+    }
+}
@@ -0,0 +1,147 @@
+package src.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import src.utils.Protocol;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadAheadTest {
+    private static final int BLOCK = BlockCache.BLOCK_SIZE;
+    private static final String FILE = "file1";
+
+    private FakeServer fake;
+    private AsyncClient server;
+    private BlockCache blocks;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws Exception {
+        fake = new FakeServer();
+        content = new byte[16 * BLOCK];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        fake.put(FILE, content);
+        server = new AsyncClient("127.0.0.1", fake.port());
+        blocks = new BlockCache(1024 * 1024);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        fake.close();
+    }
+
+    // in order, since a lost request arrives after the ones sent later
+    private static int[] offsets(List<FakeServer.Received> requests) {
+        return requests.stream().mapToInt(request -> request.offset).sorted().toArray();
+    }
+
+    @Test
+    public void TestSecondReadOfRunPrefetches() throws Exception {
+        // arrange
+        ReadAhead readAhead = new ReadAhead(server, blocks, 4);
+        // act
+        readAhead.onRead(FILE, 0, 100);
+        readAhead.onRead(FILE, 100, 100); // continues the run
+        readAhead.await(FILE, BLOCK, BLOCK);
+        // assert: without a latency yet, one window of whole blocks follows the read
+        List<FakeServer.Received> requests = fake.awaitRequests(1);
+        assertEquals(1, requests.size());
+        assertEquals(Protocol.OP_READ_IF_MODIFIED, requests.get(0).operationCode);
+        assertEquals(BLOCK, requests.get(0).offset);
+        assertEquals(BLOCK, requests.get(0).length);
+        assertEquals(1, readAhead.depth());
+        assertArrayEquals(Arrays.copyOfRange(content, BLOCK, BLOCK + 10), blocks.get(FILE, BLOCK, 10));
+    }
+
+    @Test
+    public void TestReadsOutsideRunDoNotPrefetch() throws Exception {
+        // arrange
+        ReadAhead readAhead = new ReadAhead(server, blocks, 4);
+        // act
+        readAhead.onRead(FILE, 0, 100);
+        readAhead.onRead(FILE, 5000, 100); // beyond the end of the previous read
+        readAhead.onRead(FILE, 1000, 100); // backwards
+        readAhead.onRead("file2", 100, 100); // another file's first read
+        Thread.sleep(100);
+        // assert
+        assertEquals(0, fake.requests().size());
+    }
+
+    @Test
+    public void TestDepthFollowsLatencyAndGap() throws Exception {
+        // arrange: a fetch takes 300 ms and the reader comes back 200 ms after a read is answered
+        ReadAhead readAhead = new ReadAhead(server, blocks, 8);
+        readAhead.observe(300);
+        readAhead.onRead(FILE, 0, 100);
+        readAhead.served(FILE);
+        Thread.sleep(200);
+        // act
+        readAhead.onRead(FILE, 100, 100);
+        // assert: the next window is only ready in time if two are in flight
+        assertEquals(2, readAhead.depth());
+        assertArrayEquals(new int[] { BLOCK, 2 * BLOCK }, offsets(fake.awaitRequests(2)));
+    }
+
+    @Test
+    public void TestDepthCappedByMaximumAndBudget() throws Exception {
+        // arrange
+        ReadAhead capped = new ReadAhead(server, blocks, 3);
+        ReadAhead small = new ReadAhead(server, new BlockCache(8 * BLOCK), 8);
+        // act: fetches so slow that every window would be wanted in flight
+        for (ReadAhead readAhead : new ReadAhead[] { capped, small }) {
+            readAhead.observe(100000);
+            readAhead.onRead(FILE, 0, 100);
+            readAhead.onRead(FILE, 100, 100);
+        }
+        // assert: a quarter of the budget holds two windows
+        assertEquals(3, capped.depth());
+        assertEquals(2, small.depth());
+    }
+
+    @Test
+    public void TestSkipsWindowsCachedOrInFlight() throws Exception {
+        // arrange
+        ReadAhead readAhead = new ReadAhead(server, blocks, 3);
+        blocks.put(FILE, FakeServer.VERSION, 2 * BLOCK, Arrays.copyOfRange(content, 2 * BLOCK, 3 * BLOCK), BLOCK);
+        readAhead.observe(100000);
+        fake.hold();
+        // act
+        readAhead.onRead(FILE, 0, 100);
+        readAhead.onRead(FILE, 100, 100);
+        List<FakeServer.Received> first = fake.awaitRequests(2);
+        readAhead.onRead(FILE, 200, 100); // the same windows, still in flight
+        Thread.sleep(100);
+        // assert
+        assertArrayEquals(new int[] { BLOCK, 3 * BLOCK }, offsets(first));
+        assertEquals(2, fake.requests().size());
+        fake.release();
+    }
+
+    @Test
+    public void TestForgetDiscardsPrefetchesInFlight() throws Exception {
+        // arrange
+        ReadAhead readAhead = new ReadAhead(server, blocks, 4);
+        fake.hold();
+        readAhead.onRead(FILE, 0, 100);
+        readAhead.onRead(FILE, 100, 100);
+        fake.awaitRequests(1);
+        // act: this client writes to the file while the prefetch is in flight
+        readAhead.forget(FILE);
+        fake.release();
+        Thread.sleep(300);
+        // assert
+        assertFalse(blocks.contains(FILE, BLOCK, 2 * BLOCK));
+        assertNull(blocks.get(FILE, BLOCK, 10));
+        assertTrue(readAhead.toString().startsWith("Read-ahead: 1 prefetches (0 failed)"));
+    }
+}
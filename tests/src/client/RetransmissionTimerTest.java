@@ -0,0 +1,82 @@
+package src.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RetransmissionTimerTest {
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void TestSmoothedRttAndVariance() {
+        // arrange
+        RetransmissionTimer timer = new RetransmissionTimer();
+        // act & assert: the first sample sets SRTT to R and RTTVAR to R/2
+        timer.replied(1, millis(100), true);
+        assertTrue(timer.toString().contains(String.format("smoothed: %.2f ms, variance: %.2f ms", 100.0, 50.0)));
+        assertEquals(300, timer.timeout(1));
+        // later ones move RTTVAR by a quarter and SRTT by an eighth of the difference
+        timer.replied(1, millis(200), true);
+        assertTrue(timer.toString().contains(String.format("smoothed: %.2f ms, variance: %.2f ms", 112.5, 62.5)));
+        assertEquals(363, timer.timeout(1)); // 112.5 + 4 * 62.5, rounded up
+    }
+
+    @Test
+    public void TestTimeoutClamped() {
+        // arrange
+        RetransmissionTimer fast = new RetransmissionTimer();
+        RetransmissionTimer slow = new RetransmissionTimer();
+        // act
+        fast.replied(1, millis(10), true);
+        slow.replied(1, millis(3000), true);
+        // assert
+        assertEquals(200, fast.timeout(1));
+        assertEquals(5000, slow.timeout(1));
+    }
+
+    @Test
+    public void TestKarnsRule() {
+        // arrange
+        RetransmissionTimer timer = new RetransmissionTimer();
+        // act: a reply to a resent request, and a streamed reply, are not measured
+        timer.replied(2, millis(10), true);
+        timer.replied(1, millis(10), false);
+        // assert
+        assertTrue(timer.toString().contains("No round trips measured yet"));
+        assertEquals(1000, timer.timeout(1));
+    }
+
+    @Test
+    public void TestBackoffCapped() {
+        // arrange
+        RetransmissionTimer timer = new RetransmissionTimer(); // starts at 1000 ms
+        // act & assert: each retry doubles the timeout, and jitter takes off up to half of it
+        for (int i = 0; i < 20; i++) {
+            int second = timer.timeout(2);
+            assertTrue(second >= 1000 && second <= 2000);
+            int third = timer.timeout(3);
+            assertTrue(third >= 2000 && third <= 4000);
+            int capped = timer.timeout(30);
+            assertTrue(capped >= 2500 && capped <= 5000);
+        }
+    }
+
+    @Test
+    public void TestCappedTimeoutsStillVary() {
+        // arrange
+        RetransmissionTimer timer = new RetransmissionTimer();
+        Set<Integer> timeouts = new HashSet<>();
+        // act: every one of these retries is backed off past the cap
+        for (int i = 0; i < 50; i++) {
+            timeouts.add(timer.timeout(10 + i % 20));
+        }
+        // assert: clients that time out together still spread their resends
+        assertTrue(timeouts.size() > 1);
+    }
+}
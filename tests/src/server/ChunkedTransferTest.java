@@ -0,0 +1,102 @@
+package src.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import src.utils.Protocol;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ChunkedTransferTest {
+    private static final int TRANSFER_ID = 3;
+    private static final int CHUNK_SIZE = 16;
+
+    private final List<byte[]> sent = new ArrayList<>();
+
+    // a framed reply whose body has the given length
+    private static byte[] message(int bodyLength) {
+        return Protocol.encodeReply(Protocol.OP_READ, (byte) 0, Protocol.STATUS_OK, 1, 1, new byte[bodyLength]);
+    }
+
+    private ChunkedTransfer newTransfer(byte[] message, int window) {
+        return new ChunkedTransfer(TRANSFER_ID, message, CHUNK_SIZE, window, null,
+                new InetSocketAddress("127.0.0.1", 9), (datagram, listener, client) -> sent.add(datagram));
+    }
+
+    private List<Integer> sentIndexes() {
+        List<Integer> indexes = new ArrayList<>();
+        for (byte[] chunk : sent) {
+            indexes.add(ByteBuffer.wrap(chunk).getInt(Protocol.CHUNK_INDEX_OFFSET));
+        }
+        return indexes;
+    }
+
+    @Test
+    public void TestChunksWithShortLast() {
+        // arrange: 69 bytes make four full chunks and one of 5 bytes
+        ChunkedTransfer transfer = newTransfer(message(45), 8);
+        // act
+        transfer.start();
+        // assert
+        assertEquals(List.of(0, 1, 2, 3, 4), sentIndexes());
+        assertEquals(Protocol.CHUNK_DATA_OFFSET + CHUNK_SIZE, sent.get(3).length);
+        assertEquals(Protocol.CHUNK_DATA_OFFSET + 5, sent.get(4).length);
+        ByteBuffer last = ByteBuffer.wrap(sent.get(4));
+        assertEquals(TRANSFER_ID, last.getInt(Protocol.CHUNK_TRANSFER_OFFSET));
+        assertEquals(5, last.getInt(Protocol.CHUNK_COUNT_OFFSET));
+        assertEquals(69, last.getInt(Protocol.CHUNK_TOTAL_OFFSET));
+    }
+
+    @Test
+    public void TestWindowLimitsChunksInFlight() {
+        // arrange
+        ChunkedTransfer transfer = newTransfer(message(136), 4); // 160 bytes in 10 chunks
+        // act & assert
+        transfer.start();
+        assertEquals(List.of(0, 1, 2, 3), sentIndexes());
+        sent.clear();
+        transfer.acknowledge(2, 0);
+        assertEquals(List.of(4, 5), sentIndexes());
+    }
+
+    @Test
+    public void TestResendsOnlyGapsBeforeAcknowledgedChunk() {
+        // arrange
+        ChunkedTransfer transfer = newTransfer(message(40), 8);
+        transfer.start();
+        sent.clear();
+        // act: chunks 0 and 2 arrived, so chunk 1 was lost, but chunk 3 may still be on its way
+        boolean finished = transfer.acknowledge(1, 0b1L);
+        // assert
+        assertFalse(finished);
+        assertEquals(List.of(1), sentIndexes());
+    }
+
+    @Test
+    public void TestDuplicateAcknowledgementResendsNothing() {
+        // arrange
+        ChunkedTransfer transfer = newTransfer(message(40), 8);
+        transfer.start();
+        transfer.acknowledge(1, 0b1L);
+        sent.clear();
+        // act: the same acknowledgement again, before the resent chunk arrived
+        transfer.acknowledge(1, 0b1L);
+        // assert: chunk 1 is not resent on every acknowledgement
+        assertEquals(List.of(), sentIndexes());
+    }
+
+    @Test
+    public void TestFinishesOnceEveryChunkAcknowledged() {
+        // arrange
+        ChunkedTransfer transfer = newTransfer(message(40), 8);
+        transfer.start();
+        // act & assert
+        assertFalse(transfer.acknowledge(2, 0b1L)); // chunk 3 arrived, chunk 2 has not
+        assertTrue(transfer.acknowledge(4, 0));
+        assertTrue(transfer.onTimeout());
+    }
+}
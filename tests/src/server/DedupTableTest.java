@@ -0,0 +1,135 @@
+package src.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class DedupTableTest {
+    private static final long CLIENT = 42;
+    private static final long IDLE_MILLIS = 3600000;
+
+    private static DedupTable newTable(int window) {
+        return new DedupTable(window, IDLE_MILLIS, new TimingWheel(100, 16));
+    }
+
+    @Test
+    public void TestOutcomes() {
+        // arrange
+        DedupTable table = newTable(4);
+        byte[] reply = { 1, 2, 3 };
+        // act & assert
+        assertEquals(DedupTable.Outcome.NEW, table.begin(CLIENT, 1, 0));
+        assertEquals(DedupTable.Outcome.IN_PROGRESS, table.begin(CLIENT, 1, 0));
+        table.complete(CLIENT, 1, reply);
+        assertEquals(DedupTable.Outcome.DONE, table.begin(CLIENT, 1, 0));
+        assertArrayEquals(reply, table.reply(CLIENT, 1));
+
+        assertEquals(DedupTable.Outcome.NEW, table.begin(CLIENT, 2, 1));
+        table.complete(CLIENT, 2, null); // idempotent, so the reply is not kept
+        assertEquals(DedupTable.Outcome.REPEATABLE, table.begin(CLIENT, 2, 1));
+        assertNull(table.reply(CLIENT, 2));
+
+        // another client numbers its requests independently
+        assertEquals(DedupTable.Outcome.NEW, table.begin(CLIENT + 1, 1, 0));
+    }
+
+    @Test
+    public void TestStaleRequest() {
+        // arrange
+        DedupTable table = newTable(4);
+        table.begin(CLIENT, 5, 0);
+        // act
+        DedupTable.Outcome outcome = table.begin(CLIENT, 3, 0);
+        // assert: 3 was never recorded, but it is below the floor and must not run
+        assertEquals(DedupTable.Outcome.STALE, outcome);
+        assertEquals(DedupTable.Outcome.STALE, table.begin(CLIENT, 4, 0));
+    }
+
+    @Test
+    public void TestFloorFollowsOutstanding() {
+        // arrange
+        DedupTable table = newTable(8);
+        table.begin(CLIENT, 1, 0);
+        table.complete(CLIENT, 1, new byte[10]);
+        table.begin(CLIENT, 2, 1); // 1 may still be resent
+        table.complete(CLIENT, 2, new byte[20]);
+        assertEquals(30, table.pinnedBytes());
+        assertEquals(DedupTable.Outcome.DONE, table.begin(CLIENT, 1, 0));
+        // act: nothing below 3 is outstanding any more
+        table.begin(CLIENT, 3, 0);
+        // assert
+        assertNull(table.reply(CLIENT, 1));
+        assertNull(table.reply(CLIENT, 2));
+        assertEquals(0, table.pinnedBytes());
+        assertEquals(DedupTable.Outcome.STALE, table.begin(CLIENT, 2, 0));
+    }
+
+    @Test
+    public void TestSlotReusedAcrossWindow() {
+        // arrange: the client keeps everything outstanding, so only the window bounds the floor
+        DedupTable table = newTable(4);
+        for (long sequence = 1; sequence <= 4; sequence++) {
+            table.begin(CLIENT, sequence, 1000);
+            table.complete(CLIENT, sequence, new byte[(int) sequence]);
+        }
+        assertEquals(10, table.pinnedBytes());
+        // act: 5 takes the slot of 1
+        assertEquals(DedupTable.Outcome.NEW, table.begin(CLIENT, 5, 1000));
+        table.complete(CLIENT, 5, new byte[5]);
+        // assert
+        assertNull(table.reply(CLIENT, 1));
+        assertEquals(5, table.reply(CLIENT, 5).length);
+        assertEquals(2, table.reply(CLIENT, 2).length);
+        assertEquals(14, table.pinnedBytes());
+        assertEquals(DedupTable.Outcome.STALE, table.begin(CLIENT, 1, 1000));
+    }
+
+    @Test
+    public void TestLateCompletionOutsideWindowNotPinned() {
+        // arrange
+        DedupTable table = newTable(4);
+        table.begin(CLIENT, 1, 0);
+        table.begin(CLIENT, 2, 0); // 1 left the window while it was handled
+        // act
+        table.complete(CLIENT, 1, new byte[10]);
+        // assert
+        assertNull(table.reply(CLIENT, 1));
+        assertEquals(0, table.pinnedBytes());
+    }
+
+    @Test
+    public void TestIdleClientRemoved() throws InterruptedException {
+        // arrange
+        TimingWheel wheel = new TimingWheel(1, 16);
+        DedupTable table = new DedupTable(4, 1, wheel);
+        table.begin(CLIENT, 1, 0);
+        table.complete(CLIENT, 1, new byte[10]);
+        Thread.sleep(10);
+        // act
+        wheel.advance(System.currentTimeMillis());
+        // assert: the client is forgotten, so its old sequence numbers start afresh
+        assertEquals(0, table.pinnedBytes());
+        assertNull(table.reply(CLIENT, 1));
+        assertEquals(DedupTable.Outcome.NEW, table.begin(CLIENT, 1, 0));
+    }
+
+    @Test
+    public void TestClientSeenSinceIsKept() throws InterruptedException {
+        // arrange
+        TimingWheel wheel = new TimingWheel(1, 16);
+        DedupTable table = new DedupTable(4, 200, wheel);
+        table.begin(CLIENT, 1, 0);
+        table.complete(CLIENT, 1, new byte[10]);
+        Thread.sleep(120);
+        table.begin(CLIENT, 2, 1);
+        Thread.sleep(120);
+        // act: the first expiry is due, but the client was seen since
+        wheel.advance(System.currentTimeMillis());
+        // assert
+        assertEquals(10, table.pinnedBytes());
+        assertEquals(DedupTable.Outcome.DONE, table.begin(CLIENT, 1, 0));
+        assertEquals(1, wheel.pending());
+    }
+}
@@ -0,0 +1,156 @@
+package src.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import src.utils.FileHandler;
+import src.utils.InMemoryFile;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileCacheTest {
+    // each file is resident at 100 content bytes + 2 * 12 name chars + 64 overhead
+    private static final String[] NAMES = { "test_cache_1", "test_cache_2", "test_cache_3" };
+    private static final long FILE_SIZE = 188;
+
+    private final ConcurrentHashMap<String, ReentrantReadWriteLock> locks = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws IOException {
+        for (String name : NAMES) {
+            FileHandler.writeToFile(name, new byte[100], 1000L);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (String name : NAMES) {
+            Files.deleteIfExists(Paths.get(name));
+        }
+    }
+
+    private FileCache newCache(long budget, boolean writeBack) {
+        return new FileCache(budget, writeBack, name -> locks.computeIfAbsent(name, k -> new ReentrantReadWriteLock()));
+    }
+
+    // changes the file's first byte, as a handler holding its write lock would
+    private static void modify(FileCache cache, InMemoryFile file, byte value) {
+        FileHandler.updateFileContent(file, 0, new byte[] { value });
+        cache.written(file);
+    }
+
+    private static int firstByteOnDisk(String name) {
+        return FileHandler.readFromFile(name).getFileBytes()[0];
+    }
+
+    @Test
+    public void TestEvictsLeastRecentlyUsed() {
+        // arrange: the budget holds two files
+        FileCache cache = newCache(2 * FILE_SIZE, false);
+        InMemoryFile first = cache.get(NAMES[0]);
+        cache.get(NAMES[1]);
+        cache.get(NAMES[0]); // the second file is now the least recently used
+        // act
+        cache.get(NAMES[2]);
+        // assert
+        assertSame(first, cache.getIfResident(NAMES[0]));
+        assertNull(cache.getIfResident(NAMES[1]));
+        assertNotNull(cache.getIfResident(NAMES[2]));
+    }
+
+    @Test
+    public void TestFileOverBudgetNotKept() {
+        // arrange
+        FileCache cache = newCache(FILE_SIZE - 1, false);
+        // act
+        InMemoryFile file = cache.get(NAMES[0]);
+        // assert: it is still served, just not kept resident
+        assertEquals(100, file.getContentLength());
+        assertNull(cache.getIfResident(NAMES[0]));
+    }
+
+    @Test
+    public void TestWriteThroughWritesAtOnce() {
+        // arrange
+        FileCache cache = newCache(3 * FILE_SIZE, false);
+        InMemoryFile file = cache.get(NAMES[0]);
+        // act
+        modify(cache, file, (byte) 7);
+        // assert
+        assertEquals(7, firstByteOnDisk(NAMES[0]));
+    }
+
+    @Test
+    public void TestWriteBackDefersToFlush() {
+        // arrange
+        FileCache cache = newCache(3 * FILE_SIZE, true);
+        InMemoryFile file = cache.get(NAMES[0]);
+        modify(cache, file, (byte) 7);
+        assertEquals(0, firstByteOnDisk(NAMES[0]));
+        // act
+        boolean flushed = cache.flush();
+        // assert
+        assertTrue(flushed);
+        assertEquals(7, firstByteOnDisk(NAMES[0]));
+        assertEquals(file.getTimeLastModified(), FileHandler.readFromFile(NAMES[0]).getTimeLastModified());
+    }
+
+    @Test
+    public void TestWriteBackOfAppendKeepsContent() {
+        // arrange
+        FileCache cache = newCache(3 * FILE_SIZE, true);
+        InMemoryFile file = cache.get(NAMES[0]);
+        FileHandler.updateFileContent(file, 100, new byte[] { 1, 2, 3 });
+        cache.appended(file, 100);
+        // act
+        cache.flush();
+        // assert
+        InMemoryFile onDisk = FileHandler.readFromFile(NAMES[0]);
+        assertEquals(103, onDisk.getContentLength());
+        assertEquals(3, onDisk.getFileBytes()[102]);
+    }
+
+    @Test
+    public void TestEvictedDirtyFileWrittenBack() {
+        // arrange: the budget holds one file
+        FileCache cache = newCache(FILE_SIZE, true);
+        InMemoryFile file = cache.get(NAMES[0]);
+        modify(cache, file, (byte) 7);
+        // act
+        cache.get(NAMES[1]);
+        // assert
+        assertNull(cache.getIfResident(NAMES[0]));
+        assertEquals(7, firstByteOnDisk(NAMES[0]));
+    }
+
+    @Test
+    public void TestFailedWriteBackStaysDirty() throws IOException {
+        // arrange: an appended file whose disk copy cannot be written
+        FileCache cache = newCache(3 * FILE_SIZE, true);
+        InMemoryFile file = cache.get(NAMES[0]);
+        FileHandler.updateFileContent(file, 100, new byte[] { 1, 2, 3 });
+        cache.appended(file, 100);
+        Path path = Paths.get(NAMES[0]);
+        Files.delete(path);
+        Files.createDirectory(path);
+        // act & assert: the failure is reported and the change kept for the next flush
+        assertFalse(cache.flush());
+        Files.delete(path);
+        assertTrue(cache.flush());
+        InMemoryFile onDisk = FileHandler.readFromFile(NAMES[0]);
+        assertEquals(103, onDisk.getContentLength());
+        assertEquals(file.getTimeLastModified(), onDisk.getTimeLastModified());
+        assertTrue(cache.flush());
+    }
+}
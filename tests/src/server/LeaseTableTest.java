@@ -0,0 +1,116 @@
+package src.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import src.utils.Protocol;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LeaseTableTest {
+    private static final String FILE = "file1";
+    private static final SocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 9);
+
+    private final TimingWheel wheel = new TimingWheel(1, 64);
+    private final List<byte[]> sent = new ArrayList<>();
+
+    private LeaseTable newTable(long durationMillis, int limit) {
+        return new LeaseTable(durationMillis, limit, wheel, (message, listener, client) -> sent.add(message));
+    }
+
+    private static Request request(long clientId) {
+        Request request = new Request(ByteBuffer.allocate(0));
+        request.clientId = clientId;
+        request.client = ADDRESS;
+        return request;
+    }
+
+    private void sleepAndAdvance(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+        wheel.advance(System.currentTimeMillis());
+    }
+
+    @Test
+    public void TestGrantAndRenew() {
+        // arrange
+        LeaseTable table = newTable(60000, 4);
+        // act
+        boolean granted = table.grant(FILE, request(1));
+        boolean renewed = table.grant(FILE, request(1));
+        // assert
+        assertTrue(granted);
+        assertTrue(renewed);
+        assertEquals("leases=1/4, granted=2, refused=0, invalidations=0, resent=0, unacknowledged=0",
+                table.toString());
+    }
+
+    @Test
+    public void TestLimitRefusesNewLeases() {
+        // arrange
+        LeaseTable table = newTable(60000, 2);
+        table.grant(FILE, request(1));
+        table.grant("file2", request(2));
+        // act & assert
+        assertFalse(table.grant(FILE, request(3)));
+        assertTrue(table.grant(FILE, request(1))); // a renewal needs no new lease
+        assertEquals("leases=2/2, granted=3, refused=1, invalidations=0, resent=0, unacknowledged=0",
+                table.toString());
+    }
+
+    @Test
+    public void TestRenewedLeaseOutlivesFirstExpiry() throws InterruptedException {
+        // arrange
+        LeaseTable table = newTable(200, 4);
+        table.grant(FILE, request(1));
+        Thread.sleep(120);
+        table.grant(FILE, request(1));
+        // act & assert: the first expiry finds the lease renewed and waits for the renewal
+        sleepAndAdvance(130);
+        assertTrue(table.toString().startsWith("leases=1/4"));
+        sleepAndAdvance(150);
+        assertTrue(table.toString().startsWith("leases=0/4"));
+    }
+
+    @Test
+    public void TestRevokeSkipsExpiredHolders() throws InterruptedException {
+        // arrange: the wheel is not advanced, so the expired lease is still in the table
+        LeaseTable table = newTable(50, 4);
+        table.grant(FILE, request(1));
+        Thread.sleep(80);
+        table.grant(FILE, request(2));
+        // act
+        table.revoke(FILE, 1234);
+        // assert
+        assertEquals(1, sent.size());
+        ByteBuffer invalidation = ByteBuffer.wrap(sent.get(0));
+        assertEquals(2, invalidation.getLong(Protocol.CLIENT_ID_OFFSET));
+        assertEquals(1234, invalidation.getLong(Protocol.HEADER_BYTES));
+        assertTrue(table.toString().startsWith("leases=0/4"));
+    }
+
+    @Test
+    public void TestAcknowledgementStopsResends() throws InterruptedException {
+        // arrange
+        LeaseTable table = newTable(60000, 4);
+        table.grant(FILE, request(1));
+        table.revoke(FILE, 1234);
+        long invalidationId = ByteBuffer.wrap(sent.get(0)).getLong(Protocol.SEQUENCE_OFFSET);
+        sleepAndAdvance(250);
+        assertEquals(2, sent.size());
+        // act
+        table.acknowledge(2, invalidationId); // another client's acknowledgement is ignored
+        sleepAndAdvance(250);
+        assertEquals(3, sent.size());
+        table.acknowledge(1, invalidationId);
+        sleepAndAdvance(250);
+        // assert
+        assertEquals(3, sent.size());
+        assertEquals("leases=0/4, granted=1, refused=0, invalidations=1, resent=2, unacknowledged=0",
+                table.toString());
+    }
+}
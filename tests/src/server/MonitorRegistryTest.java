@@ -0,0 +1,187 @@
+package src.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import src.utils.Protocol;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+public class MonitorRegistryTest {
+    private static final String FILE = "file1";
+    private static final long COALESCE_MILLIS = 50;
+
+    private final TimingWheel wheel = new TimingWheel(1, 64);
+    private final List<byte[]> framed = new CopyOnWriteArrayList<>(); // updates in the versioned layout, as sent
+    private final List<byte[]> bare = new CopyOnWriteArrayList<>(); // whole files sent in the original layout
+
+    private MonitorRegistry newRegistry() {
+        // the registry may reuse a message once the sender returns, so what was sent is copied
+        return new MonitorRegistry(COALESCE_MILLIS, wheel, (message, listener, client) -> framed.add(message.clone()),
+                (message, listener, client) -> bare.add(message.clone()));
+    }
+
+    private static ClientInfo subscriber(long clientId, byte version, long expiryTime) {
+        Request request = new Request(ByteBuffer.allocate(0));
+        request.version = version;
+        request.clientId = clientId;
+        request.sequence = clientId * 10;
+        request.client = new InetSocketAddress("127.0.0.1", 9);
+        return new ClientInfo(request, expiryTime);
+    }
+
+    private static ClientInfo subscriber(long clientId) {
+        return subscriber(clientId, Protocol.VERSION, System.currentTimeMillis() + 60000);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Protocol.Update update(byte[] message) {
+        return Protocol.decodeUpdateBody(ByteBuffer.wrap(message, Protocol.HEADER_BYTES,
+                message.length - Protocol.HEADER_BYTES).slice());
+    }
+
+    // waits for the coalescing window to close and its updates to be sent
+    private static void awaitFanOut() throws InterruptedException {
+        Thread.sleep(COALESCE_MILLIS + 150);
+    }
+
+    @Test
+    public void TestBurstSentAsOneNotification() throws InterruptedException {
+        // arrange
+        MonitorRegistry registry = newRegistry();
+        registry.subscribe(FILE, subscriber(1));
+        // act: three appends, each following the one before, within one window
+        registry.publish(FILE, Protocol.Update.delta(Protocol.OP_APPEND, 1, 2, 5, bytes("a")), null);
+        registry.publish(FILE, Protocol.Update.delta(Protocol.OP_APPEND, 2, 3, 6, bytes("b")), null);
+        registry.publish(FILE, Protocol.Update.delta(Protocol.OP_APPEND, 3, 4, 7, bytes("c")), null);
+        awaitFanOut();
+        // assert
+        assertEquals(1, framed.size());
+        Protocol.Update sent = update(framed.get(0));
+        assertEquals(1, sent.baseVersion);
+        assertEquals(4, sent.version);
+        assertEquals(5, sent.offset);
+        assertArrayEquals(bytes("abc"), sent.data);
+        assertEquals("files=1, updates=3, merged=2, notifications=1", registry.toString());
+    }
+
+    @Test
+    public void TestMergedDeltasApplyLikeTheOriginals() throws InterruptedException {
+        // arrange
+        MonitorRegistry registry = newRegistry();
+        registry.subscribe(FILE, subscriber(1));
+        List<Protocol.Update> published = List.of(
+                Protocol.Update.delta(Protocol.OP_INSERT, 1, 2, 1, bytes("XY")),
+                Protocol.Update.delta(Protocol.OP_INSERT, 2, 3, 2, bytes("Z")), // inside the bytes just inserted
+                Protocol.Update.delta(Protocol.OP_APPEND, 3, 4, 4, bytes("!")), // right after them
+                Protocol.Update.delta(Protocol.OP_INSERT, 4, 5, 0, bytes(">"))); // before them, so not merged
+        // act
+        for (Protocol.Update delta : published) {
+            registry.publish(FILE, delta, null);
+        }
+        awaitFanOut();
+        // assert
+        byte[] expected = bytes("hello");
+        for (Protocol.Update delta : published) {
+            expected = delta.applyTo(expected);
+        }
+        byte[] content = bytes("hello");
+        long version = 1;
+        for (byte[] message : framed) {
+            Protocol.Update delta = update(message);
+            assertEquals(version, delta.baseVersion);
+            content = delta.applyTo(content);
+            version = delta.version;
+        }
+        assertEquals(2, framed.size());
+        assertEquals(5, version);
+        assertArrayEquals(expected, content);
+        assertEquals(Protocol.OP_INSERT, update(framed.get(0)).operationCode);
+    }
+
+    @Test
+    public void TestEachSubscriberAddressed() throws InterruptedException {
+        // arrange
+        MonitorRegistry registry = newRegistry();
+        registry.subscribe(FILE, subscriber(1));
+        registry.subscribe(FILE, subscriber(2));
+        // act
+        registry.publish(FILE, Protocol.Update.delta(Protocol.OP_APPEND, 1, 2, 0, bytes("a")), null);
+        awaitFanOut();
+        // assert: one message each, carrying the subscriber's own client ID and monitor request
+        assertEquals(2, framed.size());
+        long seen = 0;
+        for (byte[] message : framed) {
+            ByteBuffer header = ByteBuffer.wrap(message);
+            long clientId = header.getLong(Protocol.CLIENT_ID_OFFSET);
+            assertEquals(clientId * 10, header.getLong(Protocol.SEQUENCE_OFFSET));
+            seen |= 1L << clientId;
+        }
+        assertEquals(0b110, seen);
+    }
+
+    @Test
+    public void TestExpiredAndDroppedSubscribersSkipped() throws InterruptedException {
+        // arrange
+        MonitorRegistry registry = newRegistry();
+        long now = System.currentTimeMillis();
+        registry.subscribe(FILE, subscriber(1, Protocol.VERSION, now - 1)); // expired, not dropped yet
+        registry.subscribe(FILE, subscriber(2, Protocol.VERSION, now + 20)); // dropped by the wheel
+        registry.subscribe(FILE, subscriber(3));
+        Thread.sleep(40);
+        wheel.advance(System.currentTimeMillis());
+        // act
+        registry.publish(FILE, Protocol.Update.delta(Protocol.OP_APPEND, 1, 2, 0, bytes("a")), null);
+        awaitFanOut();
+        // assert
+        assertEquals(1, framed.size());
+        assertEquals(3, ByteBuffer.wrap(framed.get(0)).getLong(Protocol.CLIENT_ID_OFFSET));
+        assertNull(registry.find(FILE, 1, 10));
+        assertNull(registry.find(FILE, 2, 20));
+    }
+
+    @Test
+    public void TestLastSubscriberDroppedWithFile() throws InterruptedException {
+        // arrange
+        MonitorRegistry registry = newRegistry();
+        registry.subscribe(FILE, subscriber(1, Protocol.VERSION, System.currentTimeMillis() + 20));
+        Thread.sleep(40);
+        // act
+        wheel.advance(System.currentTimeMillis());
+        registry.publish(FILE, Protocol.Update.delta(Protocol.OP_APPEND, 1, 2, 0, bytes("a")), () -> {
+            throw new AssertionError("no subscriber needs the whole file");
+        });
+        awaitFanOut();
+        // assert
+        assertEquals(0, framed.size());
+        assertTrue(registry.toString().startsWith("files=0, updates=0"));
+    }
+
+    @Test
+    public void TestLegacySubscriberGetsWholeFile() throws InterruptedException {
+        // arrange
+        MonitorRegistry registry = newRegistry();
+        ClientInfo legacy = subscriber(1, Protocol.LEGACY_VERSION, System.currentTimeMillis() + 60000);
+        registry.subscribe(FILE, legacy);
+        registry.subscribe(FILE, subscriber(2));
+        // act
+        registry.publish(FILE, Protocol.Update.delta(Protocol.OP_APPEND, 1, 2, 5, bytes("a")), () -> bytes("helloa"));
+        registry.publish(FILE, Protocol.Update.delta(Protocol.OP_APPEND, 2, 3, 6, bytes("b")), () -> bytes("helloab"));
+        awaitFanOut();
+        // assert: only the latest content, once
+        assertEquals(1, bare.size());
+        assertArrayEquals(bytes("helloab"), bare.get(0));
+        assertEquals(1, framed.size());
+        assertSame(legacy, registry.find(FILE, 1, 10));
+    }
+}
@@ -0,0 +1,100 @@
+package src.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class ReplyCacheTest {
+    private static final long CLIENT = 7;
+    private static final long TTL_MILLIS = 60000;
+
+    @Test
+    public void TestEvictsLeastRecentlyUsed() {
+        // arrange
+        ReplyCache cache = new ReplyCache(30, TTL_MILLIS, new TimingWheel(100, 16));
+        cache.put(CLIENT, 1, new byte[10]);
+        cache.put(CLIENT, 2, new byte[10]);
+        cache.put(CLIENT, 3, new byte[10]);
+        cache.get(CLIENT, 1); // 2 is now the least recently used
+        // act
+        cache.put(CLIENT, 4, new byte[10]);
+        // assert
+        assertNull(cache.get(CLIENT, 2));
+        assertEquals(10, cache.get(CLIENT, 1).length);
+        assertEquals(10, cache.get(CLIENT, 3).length);
+        assertEquals(10, cache.get(CLIENT, 4).length);
+        assertEquals("hits=4, misses=1, evictions=1, expired=0, replies=3, bytes=30/30", cache.toString());
+    }
+
+    @Test
+    public void TestEvictionCancelsExpiry() {
+        // arrange
+        TimingWheel wheel = new TimingWheel(100, 16);
+        ReplyCache cache = new ReplyCache(20, TTL_MILLIS, wheel);
+        cache.put(CLIENT, 1, new byte[10]);
+        cache.put(CLIENT, 1, new byte[10]);
+        cache.put(CLIENT, 2, new byte[10]);
+        // act
+        cache.put(CLIENT, 3, new byte[10]);
+        // assert
+        assertEquals(2, wheel.pending());
+    }
+
+    @Test
+    public void TestEvictsUntilReplyFits() {
+        // arrange
+        ReplyCache cache = new ReplyCache(30, TTL_MILLIS, new TimingWheel(100, 16));
+        cache.put(CLIENT, 1, new byte[10]);
+        cache.put(CLIENT, 2, new byte[10]);
+        // act
+        cache.put(CLIENT, 3, new byte[25]);
+        // assert
+        assertNull(cache.get(CLIENT, 1));
+        assertNull(cache.get(CLIENT, 2));
+        assertEquals(25, cache.get(CLIENT, 3).length);
+        assertEquals("hits=1, misses=2, evictions=2, expired=0, replies=1, bytes=25/30", cache.toString());
+    }
+
+    @Test
+    public void TestOverBudgetReplyNotStored() {
+        // arrange
+        ReplyCache cache = new ReplyCache(30, TTL_MILLIS, new TimingWheel(100, 16));
+        cache.put(CLIENT, 1, new byte[10]);
+        // act
+        cache.put(CLIENT, 2, new byte[31]);
+        // assert: nothing was evicted to make room for it
+        assertNull(cache.get(CLIENT, 2));
+        assertEquals(10, cache.get(CLIENT, 1).length);
+        assertEquals("hits=1, misses=1, evictions=0, expired=0, replies=1, bytes=10/30", cache.toString());
+    }
+
+    @Test
+    public void TestReplacementAccounting() {
+        // arrange
+        ReplyCache cache = new ReplyCache(30, TTL_MILLIS, new TimingWheel(100, 16));
+        byte[] replacement = { 4, 5 };
+        cache.put(CLIENT, 1, new byte[20]);
+        // act
+        cache.put(CLIENT, 1, replacement);
+        cache.put(CLIENT, 2, new byte[20]); // fits only if the first reply's bytes were released
+        // assert
+        assertArrayEquals(replacement, cache.get(CLIENT, 1));
+        assertEquals("hits=1, misses=0, evictions=0, expired=0, replies=2, bytes=22/30", cache.toString());
+    }
+
+    @Test
+    public void TestExpiredReplyMisses() throws InterruptedException {
+        // arrange
+        TimingWheel wheel = new TimingWheel(1, 16);
+        ReplyCache cache = new ReplyCache(30, 1, wheel);
+        cache.put(CLIENT, 1, new byte[10]);
+        cache.put(CLIENT, 2, new byte[10]);
+        Thread.sleep(10);
+        // act & assert: an expired reply misses even before the wheel drops it
+        assertNull(cache.get(CLIENT, 1));
+        wheel.advance(System.currentTimeMillis());
+        assertEquals("hits=0, misses=1, evictions=0, expired=2, replies=0, bytes=0/30", cache.toString());
+    }
+}
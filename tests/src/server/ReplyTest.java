@@ -0,0 +1,45 @@
+package src.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import src.utils.Protocol;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class ReplyTest {
+    private static Request request(byte version) {
+        Request request = new Request(ByteBuffer.allocate(0));
+        request.version = version;
+        request.operationCode = Protocol.OP_READ;
+        request.clientId = 7;
+        request.sequence = 3;
+        return request;
+    }
+
+    @Test
+    public void TestFramedReplyIsFilledInPlace() {
+        // arrange
+        ByteBuffer body = Reply.bodyBuffer(3).put(new byte[] { 1, 2, 3 });
+        byte[] buffer = body.array();
+        Reply reply = Reply.ok(body);
+        // act
+        byte[] message = reply.encode(request(Protocol.VERSION));
+        // assert
+        assertSame(buffer, message);
+        assertArrayEquals(Protocol.encodeReply(Protocol.OP_READ, (byte) 0, Protocol.STATUS_OK, 7, 3,
+                new byte[] { 1, 2, 3 }), message);
+    }
+
+    @Test
+    public void TestFramedReplyToLegacyRequestIsTheBody() {
+        // arrange
+        Reply reply = Reply.ok(Reply.bodyBuffer(2).put(new byte[] { 4, 5 }));
+        // act
+        byte[] message = reply.encode(request(Protocol.LEGACY_VERSION));
+        // assert
+        assertArrayEquals(new byte[] { 4, 5 }, message);
+        assertEquals(2, reply.body().length);
+    }
+}
@@ -0,0 +1,91 @@
+package src.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TimingWheelTest {
+    private static final long START = 1000000;
+
+    @Test
+    public void TestRunsTaskOnceDue() {
+        // arrange
+        TimingWheel wheel = new TimingWheel(10, 8, START);
+        List<String> ran = new ArrayList<>();
+        wheel.schedule(START + 25, () -> ran.add("a"));
+        // act & assert: the deadline is rounded up to the tick at 30
+        wheel.advance(START + 29);
+        assertEquals(0, ran.size());
+        wheel.advance(START + 30);
+        assertEquals(List.of("a"), ran);
+        assertEquals(0, wheel.pending());
+        wheel.advance(START + 1000);
+        assertEquals(1, ran.size());
+    }
+
+    @Test
+    public void TestLongDeadlineWaitsFullRounds() {
+        // arrange: 8 buckets of 10 ms cover 80 ms, so this deadline shares a bucket with 40
+        TimingWheel wheel = new TimingWheel(10, 8, START);
+        List<String> ran = new ArrayList<>();
+        wheel.schedule(START + 200, () -> ran.add("late"));
+        wheel.schedule(START + 40, () -> ran.add("early"));
+        // act & assert
+        wheel.advance(START + 40);
+        assertEquals(List.of("early"), ran);
+        wheel.advance(START + 199);
+        assertEquals(1, ran.size());
+        wheel.advance(START + 200);
+        assertEquals(List.of("early", "late"), ran);
+    }
+
+    @Test
+    public void TestCancelledTaskDoesNotRun() {
+        // arrange
+        TimingWheel wheel = new TimingWheel(10, 8, START);
+        List<String> ran = new ArrayList<>();
+        TimingWheel.Timeout first = wheel.schedule(START + 20, () -> ran.add("first"));
+        wheel.schedule(START + 20, () -> ran.add("second"));
+        TimingWheel.Timeout third = wheel.schedule(START + 20, () -> ran.add("third"));
+        // act
+        first.cancel();
+        third.cancel();
+        third.cancel();
+        // assert
+        assertEquals(1, wheel.pending());
+        wheel.advance(START + 20);
+        assertEquals(List.of("second"), ran);
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    public void TestPastDeadlineRunsOnNextAdvance() {
+        // arrange
+        TimingWheel wheel = new TimingWheel(10, 8, START);
+        wheel.advance(START + 100);
+        List<String> ran = new ArrayList<>();
+        // act
+        wheel.schedule(START + 50, () -> ran.add("overdue"));
+        wheel.advance(START + 110);
+        // assert
+        assertEquals(List.of("overdue"), ran);
+    }
+
+    @Test
+    public void TestFailingTaskDoesNotStopOthers() {
+        // arrange
+        TimingWheel wheel = new TimingWheel(10, 8, START);
+        List<String> ran = new ArrayList<>();
+        wheel.schedule(START + 10, () -> {
+            throw new IllegalStateException("boom");
+        });
+        wheel.schedule(START + 10, () -> ran.add("ok"));
+        // act
+        wheel.advance(START + 10);
+        // assert
+        assertEquals(List.of("ok"), ran);
+    }
+}
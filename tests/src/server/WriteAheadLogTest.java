@@ -0,0 +1,159 @@
+package src.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteAheadLogTest {
+    private Path path;
+    private final AtomicBoolean filesFlushed = new AtomicBoolean(); // what the checkpoint's flush reports
+
+    @Before
+    public void setUp() throws IOException {
+        path = Files.createTempFile("wal", ".log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    // opens the log, reads back what it holds and starts committing after it
+    private WriteAheadLog open(List<WriteAheadLog.Record> replayed) throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(path, 1, 16, 3600);
+        replayed.addAll(wal.readRecords());
+        wal.start(filesFlushed::get);
+        return wal;
+    }
+
+    private static void log(WriteAheadLog wal, String filename, int offset, String content) {
+        wal.append((byte) 2, filename, offset, content.getBytes(), offset + 1000L).join();
+    }
+
+    private static String content(WriteAheadLog.Record record) {
+        return new String(record.content);
+    }
+
+    private List<WriteAheadLog.Record> reopen() throws IOException, InterruptedException {
+        List<WriteAheadLog.Record> replayed = new ArrayList<>();
+        open(replayed).close();
+        return replayed;
+    }
+
+    @Test
+    public void TestRecordsReplayed() throws Exception {
+        // arrange
+        WriteAheadLog wal = open(new ArrayList<>());
+        log(wal, "file1", 0, "first");
+        log(wal, "file2", 7, "second");
+        wal.close();
+        // act
+        List<WriteAheadLog.Record> replayed = reopen();
+        // assert
+        assertEquals(2, replayed.size());
+        WriteAheadLog.Record record = replayed.get(1);
+        assertEquals(2, record.operationCode);
+        assertEquals("file2", record.filename);
+        assertEquals(7, record.offset);
+        assertArrayEquals("second".getBytes(), record.content);
+        assertEquals(1007L, record.timeLastModified);
+    }
+
+    @Test
+    public void TestTornTailCutOff() throws Exception {
+        // arrange: the last record was only partly written when the server crashed
+        WriteAheadLog wal = open(new ArrayList<>());
+        log(wal, "file1", 0, "first");
+        long intact = Files.size(path);
+        log(wal, "file1", 5, "second");
+        wal.close();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(path) - 3);
+        }
+        // act
+        List<WriteAheadLog.Record> replayed = new ArrayList<>();
+        WriteAheadLog reopened = open(replayed);
+        long size = Files.size(path);
+        log(reopened, "file1", 5, "again");
+        reopened.close();
+        // assert: the torn record is cut off, and later records follow the intact ones
+        assertEquals(1, replayed.size());
+        assertEquals("first", content(replayed.get(0)));
+        assertEquals(intact, size);
+        List<WriteAheadLog.Record> after = reopen();
+        assertEquals(2, after.size());
+        assertEquals("again", content(after.get(1)));
+    }
+
+    @Test
+    public void TestCorruptRecordEndsLog() throws Exception {
+        // arrange: a byte of the second record's content is flipped, so its checksum fails
+        WriteAheadLog wal = open(new ArrayList<>());
+        log(wal, "file1", 0, "first");
+        long intact = Files.size(path);
+        log(wal, "file1", 5, "second");
+        log(wal, "file1", 11, "third");
+        wal.close();
+        byte[] bytes = Files.readAllBytes(path);
+        int at = indexOf(bytes, "second".getBytes());
+        bytes[at] ^= 1;
+        Files.write(path, bytes);
+        // act
+        List<WriteAheadLog.Record> replayed = reopen();
+        // assert: nothing after the corrupt record can be trusted
+        assertEquals(1, replayed.size());
+        assertEquals("first", content(replayed.get(0)));
+        assertEquals(intact, Files.size(path));
+    }
+
+    @Test
+    public void TestCheckpointEmptiesLog() throws Exception {
+        // arrange
+        WriteAheadLog wal = open(new ArrayList<>());
+        log(wal, "file1", 0, "before");
+        // act: the files are written back, so the log only has to hold later changes
+        filesFlushed.set(true);
+        wal.checkpoint();
+        filesFlushed.set(false);
+        log(wal, "file1", 6, "after");
+        wal.close();
+        // assert
+        List<WriteAheadLog.Record> replayed = reopen();
+        assertEquals(1, replayed.size());
+        assertEquals("after", content(replayed.get(0)));
+    }
+
+    @Test
+    public void TestFailedFlushKeepsLog() throws Exception {
+        // arrange
+        WriteAheadLog wal = open(new ArrayList<>());
+        log(wal, "file1", 0, "kept");
+        // act: a checkpoint whose write-back fails must not empty the log
+        wal.checkpoint();
+        wal.close();
+        // assert
+        assertEquals(1, reopen().size());
+    }
+
+    private static int indexOf(byte[] bytes, byte[] part) {
+        for (int i = 0; i + part.length <= bytes.length; i++) {
+            if (ByteBuffer.wrap(bytes, i, part.length).equals(ByteBuffer.wrap(part))) {
+                return i;
+            }
+        }
+        throw new AssertionError("not found");
+    }
+}